@@ -1,164 +1,196 @@
 import edu.princeton.cs.algs4.Picture;
 
-import java.awt.Color;
+import java.util.Arrays;
 
 public class SeamCarver {
 
-    private int width;
-    private int height;
-    private Picture picture;
-    private double[][] energies;
-    private int[][] edgeToV;
-    private double[][] distToV;
-    private int[][] edgeToH;
-    private double[][] distToH;
-    private boolean hasChangedV = true;
-    private boolean hasChangedH = true;
+    // side of the square tiles in which the buffers are transposed
+    private static final int TILE = 64;
+    // seams resizeTo() removes in one orientation before it reconsiders
+    private static final int RESIZE_BLOCK = 16;
+
+    // The buffers hold the picture row-major, cols pixels per row, or its transpose when
+    // transposed is set: pixel (c, r) of the buffers is at r * stride + c. Both kinds of seam
+    // are found and removed as vertical seams of the buffers, so a horizontal seam first turns
+    // the buffers over; they stay that way until a vertical seam is asked for.
+    private int cols;
+    private int rows;
+    private int stride;
+    private boolean transposed;
+    // packed RGB and energy of the pixels; a Picture is only built by picture()
+    private int[] rgb;
+    private double[] energies;
+    // the buffers a transpose writes into, allocated on the first one
+    private int[] rgbSpare;
+    private double[] energiesSpare;
+    // shortest paths from the top row of the buffers, valid unless hasChanged is set; edgeTo
+    // holds the column of the upper pixel on the path relative to the pixel's own, so that
+    // removing a seam can shift it along with the rest of the row
+    private final double[] distTo;
+    private final byte[] edgeTo;
+    private boolean hasChanged = true;
 
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) {
         if (picture == null)
             throw new IllegalArgumentException();
-        this.width = picture.width();
-        this.height = picture.height();
-        this.picture = new Picture(picture);
+        this.cols = picture.width();
+        this.rows = picture.height();
+        this.stride = cols;
+        this.rgb = new int[cols * rows];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) rgb[y * stride + x] = picture.getRGB(x, y);
+        }
+        this.energies = new double[cols * rows];
+        this.distTo = new double[cols * rows];
+        this.edgeTo = new byte[cols * rows];
         computeAllEnergies();
     }
 
     // current picture
     public Picture picture() {
-        return new Picture(this.picture);
+        Picture picture = new Picture(width(), height());
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                if (transposed) picture.setRGB(r, c, rgb[r * stride + c]);
+                else picture.setRGB(c, r, rgb[r * stride + c]);
+            }
+        }
+        return picture;
     }
 
     // width of current picture
     public int width() {
-        return width;
+        return transposed ? rows : cols;
     }
 
     // height of current picture
     public int height() {
-        return height;
+        return transposed ? cols : rows;
     }
 
     private void computeAllEnergies() {
-        this.energies = new double[height][width];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                this.energies[y][x] = energy(x, y);
-            }
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) energies[r * stride + c] = computeEnergy(c, r);
         }
     }
 
     // energy of pixel at column x and row y. Performance requirements: O(1)
     public double energy(int x, int y) {
         validatePixelRange(x, y);
-        if (x == 0 || x == width - 1 || y == 0 || y == height - 1)
+        return transposed ? computeEnergy(y, x) : computeEnergy(x, y);
+    }
+
+    // energy of pixel (c, r) of the buffers, which is the same in either orientation
+    private double computeEnergy(int c, int r) {
+        if (c == 0 || c == cols - 1 || r == 0 || r == rows - 1)
             return 1000;
-        int deltaX = this.getSquareGradient(this.picture.get(x - 1, y), this.picture.get(x + 1, y));
-        int deltaY = this.getSquareGradient(this.picture.get(x, y - 1), this.picture.get(x, y + 1));
-        return Math.sqrt(deltaX + deltaY);
+        int i = r * stride + c;
+        int deltaC = getSquareGradient(rgb[i - 1], rgb[i + 1]);
+        int deltaR = getSquareGradient(rgb[i - stride], rgb[i + stride]);
+        return Math.sqrt(deltaC + deltaR);
     }
 
     private void validatePixelRange(int x, int y) {
-        if (x < 0 || x > width - 1 || y < 0 || y > height - 1)
+        if (x < 0 || x > width() - 1 || y < 0 || y > height() - 1)
             throw new IllegalArgumentException("Out of range x and y");
     }
 
-    private int getSquareGradient(Color a, Color b) {
-        int r = a.getRed() - b.getRed();
-        int g = a.getGreen() - b.getGreen();
-        int bl = a.getBlue() - b.getBlue();
+    // squared difference of two packed RGB colors
+    private static int getSquareGradient(int a, int b) {
+        int r = ((a >> 16) & 0xff) - ((b >> 16) & 0xff);
+        int g = ((a >> 8) & 0xff) - ((b >> 8) & 0xff);
+        int bl = (a & 0xff) - (b & 0xff);
         return r * r + g * g + bl * bl;
     }
 
-    private void calculateVerticalPaths() {
-        edgeToV = new int[height][width];
-        distToV = new double[height][width];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                if (y == 0)
-                    distToV[y][x] = 1000;
-                else
-                    distToV[y][x] = Double.POSITIVE_INFINITY;
-            }
-        }
-        for (int y = 0; y < height - 1; y++) {
-            for (int x = 0; x < width; x++) {
-                if (x - 1 >= 0) relaxVertical(x - 1, y + 1, x);
-                relaxVertical(x, y + 1, x);
-                if (x + 1 < width) relaxVertical(x + 1, y + 1, x);
-            }
+    // turns the buffers over if they are not transposed as wanted
+    private void orient(boolean wanted) {
+        if (transposed == wanted) return;
+        if (rgbSpare == null) {
+            rgbSpare = new int[rgb.length];
+            energiesSpare = new double[energies.length];
         }
-        hasChangedV = false;
-    }
-
-    private void calculateHorizontalPaths() {
-        edgeToH = new int[height][width];
-        distToH = new double[height][width];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (x == 0) {
-                    distToH[y][x] = 1000;
-                }
-                else {
-                    distToH[y][x] = Double.POSITIVE_INFINITY;
+        // pixel (c, r) moves to (r, c) of buffers rows pixels wide, a tile at a time
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            for (int c0 = 0; c0 < cols; c0 += TILE) {
+                int rEnd = Math.min(rows, r0 + TILE);
+                int cEnd = Math.min(cols, c0 + TILE);
+                for (int r = r0; r < rEnd; r++) {
+                    for (int c = c0; c < cEnd; c++) {
+                        rgbSpare[c * rows + r] = rgb[r * stride + c];
+                        energiesSpare[c * rows + r] = energies[r * stride + c];
+                    }
                 }
             }
         }
-        for (int x = 0; x < width - 1; x++) {
-            for (int y = 0; y < height; y++) {
-                if (y - 1 >= 0) relaxHorizontal(x + 1, y - 1, y);
-                relaxHorizontal(x + 1, y, y);
-                if (y + 1 < height) relaxHorizontal(x + 1, y + 1, y);
-            }
-        }
-        hasChangedH = false;
+        int[] pixels = rgb;
+        rgb = rgbSpare;
+        rgbSpare = pixels;
+        double[] e = energies;
+        energies = energiesSpare;
+        energiesSpare = e;
+        int n = cols;
+        cols = rows;
+        rows = n;
+        stride = cols;
+        transposed = wanted;
+        hasChanged = true;
     }
 
-    private void relaxVertical(int x, int y, int upperX) {
-        if (distToV[y][x] > distToV[y - 1][upperX] + energies[y][x]) {
-            distToV[y][x] = distToV[y - 1][upperX] + energies[y][x];
-            edgeToV[y][x] = upperX;
-        }
+    private void calculatePaths() {
+        for (int c = 0; c < cols; c++) distTo[c] = 1000;
+        for (int r = 1; r < rows; r++) relaxRow(r, 0, cols - 1);
+        hasChanged = false;
     }
 
-    private void relaxHorizontal(int x, int y, int leftY) {
-        if (distToH[y][x] > distToH[leftY][x - 1] + energies[y][x]) {
-            distToH[y][x] = distToH[leftY][x - 1] + energies[y][x];
-            edgeToH[y][x] = leftY;
+    // shortest paths to the pixels lo..hi of row r from those of row r - 1. The upper pixels
+    // are tried left to right and only a strictly shorter path replaces the best one
+    private void relaxRow(int r, int lo, int hi) {
+        int row = r * stride;
+        int upper = row - stride;
+        for (int c = lo; c <= hi; c++) {
+            double best = Double.POSITIVE_INFINITY;
+            byte edge = 0;
+            for (int d = -1; d <= 1; d++) {
+                if (c + d < 0 || c + d >= cols) continue;
+                double dist = distTo[upper + c + d] + energies[row + c];
+                if (best > dist) {
+                    best = dist;
+                    edge = (byte) d;
+                }
+            }
+            distTo[row + c] = best;
+            edgeTo[row + c] = edge;
         }
     }
 
     // sequence of indices for horizontal seam (path using topological order)
     public int[] findHorizontalSeam() {
-        if (hasChangedH) calculateHorizontalPaths();
-        double min = Double.POSITIVE_INFINITY;
-        int[] result = new int[width];
-        for (int y = 0; y < height; y++) {
-            if (distToH[y][width - 1] < min) {
-                result[width - 1] = y;
-                min = distToH[y][width - 1];
-            }
-        }
-        for (int x = width - 2; x >= 0; x--) {
-            result[x] = edgeToH[result[x + 1]][x + 1];
-        }
-        return result;
+        orient(true);
+        return findSeam();
     }
 
     // sequence of indices for vertical seam (path using topological order)
     public int[] findVerticalSeam() {
-        if (hasChangedV) calculateVerticalPaths();
+        orient(false);
+        return findSeam();
+    }
+
+    // the columns of the vertical seam of the buffers, one per row
+    private int[] findSeam() {
+        if (hasChanged) calculatePaths();
         double min = Double.POSITIVE_INFINITY;
-        int[] result = new int[height];
-        for (int x = 0; x < width; x++) {
-            if (distToV[height - 1][x] < min) {
-                result[height - 1] = x;
-                min = distToV[height - 1][x];
+        int[] result = new int[rows];
+        int last = (rows - 1) * stride;
+        for (int c = 0; c < cols; c++) {
+            if (distTo[last + c] < min) {
+                result[rows - 1] = c;
+                min = distTo[last + c];
             }
         }
-        for (int y = height - 2; y >= 0; y--) {
-            result[y] = edgeToV[y + 1][result[y + 1]];
+        for (int r = rows - 2; r >= 0; r--) {
+            result[r] = result[r + 1] + edgeTo[(r + 1) * stride + result[r + 1]];
         }
         return result;
     }
@@ -166,52 +198,89 @@ public class SeamCarver {
     // remove horizontal seam from current picture
     public void removeHorizontalSeam(int[] seam) {
         validateHorizontalSeam(seam);
-        Picture result = new Picture(width, height - 1);
-        for (int x = 0; x < result.width(); x++) {
-            boolean isFound = false;
-            for (int y = 0; y < result.height(); y++) {
-                if (isFound ||  y == seam[x]) {
-                    result.set(x, y, picture.get(x, y + 1));
-                    isFound = true;
-                } else {
-                    result.set(x, y, picture.get(x, y));
-                }
-            }
-        }
-        height--;
-        picture = result;
-        this.computeAllEnergies();
-        hasChangedV = true;
-        hasChangedH = true;
+        orient(true);
+        removeSeam(seam);
     }
 
     // remove vertical seam from current picture
     public void removeVerticalSeam(int[] seam) {
         validateVerticalSeam(seam);
-        Picture result = new Picture(width - 1, height);
-        for (int y = 0; y < result.height(); y++) {
-            boolean isFound = false;
-            for (int x = 0; x < result.width(); x++) {
-                if (isFound ||  x == seam[y]) {
-                    result.set(x, y, picture.get(x + 1, y));
-                    isFound = true;
-                } else {
-                    result.set(x, y, picture.get(x, y));
-                }
+        orient(false);
+        removeSeam(seam);
+    }
+
+    // removes the vertical seam of the buffers
+    private void removeSeam(int[] seam) {
+        boolean paths = !hasChanged;
+        // shift the tail of every row left over the seam, pixels, energies and paths alike
+        for (int r = 0; r < rows; r++) {
+            int at = r * stride + seam[r];
+            int tail = cols - 1 - seam[r];
+            System.arraycopy(rgb, at + 1, rgb, at, tail);
+            System.arraycopy(energies, at + 1, energies, at, tail);
+            if (paths) {
+                System.arraycopy(distTo, at + 1, distTo, at, tail);
+                System.arraycopy(edgeTo, at + 1, edgeTo, at, tail);
+            }
+        }
+        cols--;
+        // recompute the energies whose neighbours changed, then the paths that can go through
+        // them or whose upper pixels changed: a band around the seam that widens by one column
+        // on each side per row
+        int lo = cols;
+        int hi = -1;
+        for (int r = 0; r < rows; r++) {
+            int from = seam[r];
+            int to = seam[r];
+            if (r > 0) {
+                from = Math.min(from, seam[r - 1]);
+                to = Math.max(to, seam[r - 1]);
+            }
+            if (r < rows - 1) {
+                from = Math.min(from, seam[r + 1]);
+                to = Math.max(to, seam[r + 1]);
+            }
+            for (int c = Math.max(0, from - 1); c <= Math.min(cols - 1, to); c++) energies[r * stride + c] = computeEnergy(c, r);
+            if (paths && r > 0) {
+                lo = Math.max(0, Math.min(lo - 1, from - 1));
+                hi = Math.min(cols - 1, Math.max(hi + 1, to + 1));
+                relaxRow(r, lo, hi);
+            }
+        }
+        hasChanged = !paths;
+    }
+
+    // carves the current picture down to targetWidth by targetHeight and returns it. Seams are
+    // removed in blocks of one orientation, each block taken in the orientation whose last seam
+    // had the lower energy per pixel, so the buffers are transposed at most once per block
+    public Picture resizeTo(int targetWidth, int targetHeight) {
+        if (targetWidth < 1 || targetWidth > width() || targetHeight < 1 || targetHeight > height())
+            throw new IllegalArgumentException("Target size out of range");
+        double costV = 0;
+        double costH = 0;
+        while (width() > targetWidth || height() > targetHeight) {
+            boolean horizontal;
+            if (width() == targetWidth) horizontal = true;
+            else if (height() == targetHeight) horizontal = false;
+            else horizontal = costH < costV || (costH == costV && transposed);
+            orient(horizontal);
+            int n = Math.min(RESIZE_BLOCK, horizontal ? height() - targetHeight : width() - targetWidth);
+            for (int i = 0; i < n; i++) {
+                int[] seam = findSeam();
+                double cost = distTo[(rows - 1) * stride + seam[rows - 1]] / rows;
+                if (horizontal) costH = cost;
+                else costV = cost;
+                removeSeam(seam);
             }
         }
-        width--;
-        picture = result;
-        this.computeAllEnergies();
-        hasChangedV = true;
-        hasChangedH = true;
+        return picture();
     }
 
     private void validateVerticalSeam(int[] seam) {
-        if (seam == null || seam.length == 0 || seam.length != height || width <= 1)
+        if (seam == null || seam.length == 0 || seam.length != height() || width() <= 1)
             throw new IllegalArgumentException();
         for (int i = 0; i < seam.length; i++) {
-            if (seam[i] < 0 || seam[i] > width - 1)
+            if (seam[i] < 0 || seam[i] > width() - 1)
                 throw new IllegalArgumentException();
             if (i > 0 && Math.abs(seam[i] - seam[i - 1]) >= 2)
                 throw new IllegalArgumentException();
@@ -219,10 +288,10 @@ public class SeamCarver {
     }
 
     private void validateHorizontalSeam(int[] seam) {
-        if (seam == null || seam.length == 0 || seam.length != width || height <= 1)
+        if (seam == null || seam.length == 0 || seam.length != width() || height() <= 1)
             throw new IllegalArgumentException();
         for (int i = 0; i < seam.length; i++) {
-            if (seam[i] < 0 || seam[i] > height - 1)
+            if (seam[i] < 0 || seam[i] > height() - 1)
                 throw new IllegalArgumentException();
             if (i > 0 && Math.abs(seam[i] - seam[i - 1]) >= 2)
                 throw new IllegalArgumentException();
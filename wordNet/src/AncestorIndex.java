@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+// For every vertex, the set of vertices reachable from it (its ancestors in a hypernym DAG,
+// itself included) with their distances, sorted by ancestor id. A shortest ancestral path is
+// then found by merging the two labels instead of searching the graph. The labels of all
+// vertices are stored back to back in two int arrays, so the index costs 8 bytes per
+// (vertex, ancestor) pair plus 4 bytes per vertex.
+//
+// The label of x is ancestors(x)[i] at distance dists(x)[i] for i in [from(x), to(x)).
+// relabel() returns a new index in which only the labels of the given vertices are
+// recomputed; they are kept in RowOverlays over the shared flat arrays. All versions share one
+// search workspace, so relabel() calls must not run concurrently.
+class AncestorIndex {
+
+    private final int[] offsets;
+    private final int[] ancestors;
+    private final int[] dists;
+    private final int V;
+    private final RowOverlay changedAncestors;
+    private final RowOverlay changedDists;
+    private final Labeler labeler;
+
+    AncestorIndex(CompactDigraph graph) {
+        V = graph.V();
+        offsets = new int[V + 1];
+        int[] ancestorsOut = new int[Math.max(16, 4 * V)];
+        int[] distsOut = new int[ancestorsOut.length];
+        labeler = new Labeler(graph);
+        int size = 0;
+        for (int v = 0; v < V; v++) {
+            int n = labeler.label(v);
+            if (size + n > ancestorsOut.length) {
+                int capacity = Math.max(size + n, 2 * ancestorsOut.length);
+                ancestorsOut = Arrays.copyOf(ancestorsOut, capacity);
+                distsOut = Arrays.copyOf(distsOut, capacity);
+            }
+            labeler.copyTo(ancestorsOut, distsOut, size);
+            size += n;
+            offsets[v + 1] = size;
+        }
+        ancestors = Arrays.copyOf(ancestorsOut, size);
+        dists = Arrays.copyOf(distsOut, size);
+        changedAncestors = RowOverlay.EMPTY;
+        changedDists = RowOverlay.EMPTY;
+    }
+
+    private AncestorIndex(AncestorIndex base, int V, RowOverlay changedAncestors, RowOverlay changedDists) {
+        offsets = base.offsets;
+        ancestors = base.ancestors;
+        dists = base.dists;
+        this.V = V;
+        this.changedAncestors = changedAncestors;
+        this.changedDists = changedDists;
+        labeler = base.labeler;
+    }
+
+    // this index for graph, a later version of the indexed graph in which only the vertices
+    // in changed[0..n) can reach a different set of vertices
+    AncestorIndex relabel(CompactDigraph graph, int[] changed, int n) {
+        labeler.on(graph);
+        RowOverlay newAncestors = changedAncestors;
+        RowOverlay newDists = changedDists;
+        for (int k = 0; k < n; k++) {
+            int size = labeler.label(changed[k]);
+            int[] a = new int[size];
+            int[] d = new int[size];
+            labeler.copyTo(a, d, 0);
+            newAncestors = newAncestors.with(changed[k], a);
+            newDists = newDists.with(changed[k], d);
+        }
+        return new AncestorIndex(this, graph.V(), newAncestors, newDists);
+    }
+
+    // number of vertices indexed
+    int V() {
+        return V;
+    }
+
+    // number of (vertex, ancestor) pairs stored in the flat arrays
+    int size() {
+        return ancestors.length;
+    }
+
+    int[] ancestors(int x) {
+        int[] row = changedAncestors.get(x);
+        return row != null ? row : ancestors;
+    }
+
+    int[] dists(int x) {
+        int[] row = changedDists.get(x);
+        return row != null ? row : dists;
+    }
+
+    int from(int x) {
+        return changedAncestors.get(x) != null ? 0 : offsets[x];
+    }
+
+    int to(int x) {
+        int[] row = changedAncestors.get(x);
+        return row != null ? row.length : offsets[x + 1];
+    }
+
+    // true if a is reachable from x
+    boolean reaches(int x, int a) {
+        return Arrays.binarySearch(ancestors(x), from(x), to(x), a) >= 0;
+    }
+
+    // length and ancestor of v and w packed with SAPCache.pack, by merging their labels
+    long shortest(int v, int w) {
+        int length = -1;
+        int ancestor = -1;
+        int[] ancestorsV = ancestors(v);
+        int[] distsV = dists(v);
+        int[] ancestorsW = ancestors(w);
+        int[] distsW = dists(w);
+        int i = from(v);
+        int j = from(w);
+        int endV = to(v);
+        int endW = to(w);
+        while (i < endV && j < endW) {
+            if (ancestorsV[i] < ancestorsW[j]) i++;
+            else if (ancestorsV[i] > ancestorsW[j]) j++;
+            else {
+                int len = distsV[i] + distsW[j];
+                if (length == -1 || len < length) {
+                    length = len;
+                    ancestor = ancestorsV[i];
+                }
+                i++;
+                j++;
+            }
+        }
+        return SAPCache.pack(length, ancestor);
+    }
+
+    // breadth-first search computing one label at a time. A vertex counts as visited only if
+    // its mark equals the current epoch, so the arrays are reused by every label
+    private static final class Labeler {
+        private CompactDigraph graph;
+        private int[] dist = new int[0];
+        private int[] mark = dist;
+        private int[] queue = dist;
+        private int epoch;
+        private int size;
+
+        Labeler(CompactDigraph graph) {
+            on(graph);
+        }
+
+        // searches graph from now on, growing the arrays if it has grown
+        void on(CompactDigraph graph) {
+            this.graph = graph;
+            int V = graph.V();
+            if (V <= mark.length) return;
+            int capacity = Math.max(V, mark.length + (mark.length >> 3));
+            dist = new int[capacity];
+            mark = Arrays.copyOf(mark, capacity);
+            queue = new int[capacity];
+        }
+
+        // searches from v; returns the size of its label
+        int label(int v) {
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(mark, 0);
+                epoch = 1;
+            }
+            int head = 0;
+            int tail = 0;
+            mark[v] = epoch;
+            dist[v] = 0;
+            queue[tail++] = v;
+            while (head < tail) {
+                int x = queue[head++];
+                int[] targets = graph.targets(x);
+                for (int i = graph.start(x), end = graph.end(x); i < end; i++) {
+                    int y = targets[i];
+                    if (mark[y] != epoch) {
+                        mark[y] = epoch;
+                        dist[y] = dist[x] + 1;
+                        queue[tail++] = y;
+                    }
+                }
+            }
+            Arrays.sort(queue, 0, tail);
+            size = tail;
+            return tail;
+        }
+
+        // writes the last label at position at of ancestors and dists
+        void copyTo(int[] ancestors, int[] dists, int at) {
+            for (int i = 0; i < size; i++) {
+                ancestors[at + i] = queue[i];
+                dists[at + i] = dist[queue[i]];
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.Arrays;
+
+// Breadth-first search from v and from w (single vertices or sets of them) in lockstep over
+// the same digraph. Both frontiers grow one level at a time, and once the best ancestral path
+// found so far is no longer than the shortest path that could still be discovered the search
+// stops. Only visited vertices are touched, so the cost of a query depends on the depth of the
+// ancestor and not on V.
+//
+// The arrays form a workspace that is reused by every search. A vertex counts as visited only
+// if its mark equals the current epoch, so starting a new search is a single increment and
+// the steady-state query path allocates nothing.
+//
+// The two sides have separate epochs, so a one-to-many query can search the v side once with
+// prepare() and then run probe() for every w against the same v distances.
+//
+// A workspace is not tied to one graph: on() selects the graph to search and grows the arrays
+// when the graph has grown, so it survives updates of a live WordNet.
+class AncestralSearch {
+
+    private CompactDigraph graph;
+    private int[] distV;
+    private int[] distW;
+    private int[] markV;
+    private int[] markW;
+    private int[] queueV;
+    private int[] queueW;
+    private int epochV;
+    private int epochW;
+    private int headV, tailV;
+    private int headW, tailW;
+    private int length;
+    private int ancestor;
+    // label entries read by the last search from an index
+    private int labelEntries;
+
+    AncestralSearch(CompactDigraph graph) {
+        distV = new int[0];
+        distW = distV;
+        markV = distV;
+        markW = distV;
+        queueV = distV;
+        queueW = distV;
+        on(graph);
+    }
+
+    // searches graph from now on; returns this
+    AncestralSearch on(CompactDigraph graph) {
+        this.graph = graph;
+        ensureCapacity(graph.V());
+        return this;
+    }
+
+    // makes room for vertices 0 to V - 1, keeping the state of the current search
+    private void ensureCapacity(int V) {
+        if (V <= markV.length) return;
+        int capacity = Math.max(V, markV.length + (markV.length >> 3));
+        distV = Arrays.copyOf(distV, capacity);
+        distW = Arrays.copyOf(distW, capacity);
+        markV = Arrays.copyOf(markV, capacity);
+        markW = Arrays.copyOf(markW, capacity);
+        queueV = Arrays.copyOf(queueV, capacity);
+        queueW = Arrays.copyOf(queueW, capacity);
+    }
+
+    // true if x was reached from the set given to the last prepare()
+    boolean reached(int x) {
+        return markV[x] == epochV;
+    }
+
+    // the vertices reached from the set given to the last prepare() that searched the graph
+    int[] reached() {
+        return Arrays.copyOf(queueV, tailV);
+    }
+
+    // vertices visited by the last search, or label entries read if it used an index
+    int visited() {
+        return tailV + tailW + labelEntries;
+    }
+
+    // edges relaxed by the last search; only the vertices taken off a queue had their edges
+    // relaxed. Counted after the fact so that searches pay nothing for it
+    int edgesRelaxed() {
+        int edges = 0;
+        for (int i = 0; i < headV; i++) edges += graph.outdegree(queueV[i]);
+        for (int i = 0; i < headW; i++) edges += graph.outdegree(queueW[i]);
+        return edges;
+    }
+
+    // length of the shortest ancestral path found by the last search; -1 if no such path
+    int length() {
+        return length;
+    }
+
+    // common ancestor on the shortest ancestral path found by the last search; -1 if no such path
+    int ancestor() {
+        return ancestor;
+    }
+
+    void search(int v, int w) {
+        nextEpochV();
+        nextEpochW();
+        seedV(v);
+        seedW(w);
+        expand();
+    }
+
+    // multi-source search: every vertex of v[vFrom..vTo) and of w[wFrom..wTo) starts its side
+    // at distance 0, so the closest pair of the two sets is found by a single traversal
+    void search(int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo) {
+        nextEpochV();
+        nextEpochW();
+        for (int k = vFrom; k < vTo; k++) seedV(v[k]);
+        for (int k = wFrom; k < wTo; k++) seedW(w[k]);
+        expand();
+    }
+
+    // first half of a one-to-many query: searches everything reachable from v[from..to) and
+    // keeps the distances until the next call to prepare() or search()
+    void prepare(int[] v, int from, int to) {
+        nextEpochV();
+        nextEpochW();
+        for (int k = from; k < to; k++) seedV(v[k]);
+        while (headV < tailV) {
+            int y = queueV[headV++];
+            int[] targets = graph.targets(y);
+            for (int i = graph.start(y), end = graph.end(y); i < end; i++) {
+                int x = targets[i];
+                if (markV[x] != epochV) visitV(x, distV[y] + 1);
+            }
+        }
+    }
+
+    // second half of a one-to-many query: the shortest ancestral path between w[from..to) and
+    // the set given to the last prepare()
+    void probe(int[] w, int from, int to) {
+        nextEpochW();
+        for (int k = from; k < to; k++) seedW(w[k]);
+        expand();
+    }
+
+    // multi-source search answered from the precomputed labels of index instead of the graph
+    void search(AncestorIndex index, int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo) {
+        prepare(index, v, vFrom, vTo);
+        probe(index, w, wFrom, wTo);
+    }
+
+    // prepare() from the labels of index: the v side distances are the minimum label
+    // distances over the vertices of v
+    void prepare(AncestorIndex index, int[] v, int from, int to) {
+        ensureCapacity(index.V());
+        nextEpochV();
+        nextEpochW();
+        for (int k = from; k < to; k++) {
+            int x = v[k];
+            labelEntries += index.to(x) - index.from(x);
+            int[] ancestors = index.ancestors(x);
+            int[] dists = index.dists(x);
+            for (int i = index.from(x), end = index.to(x); i < end; i++) {
+                int a = ancestors[i];
+                if (markV[a] != epochV || dists[i] < distV[a]) {
+                    markV[a] = epochV;
+                    distV[a] = dists[i];
+                }
+            }
+        }
+    }
+
+    // probe() against the v side left by prepare(AncestorIndex, int[], int, int)
+    void probe(AncestorIndex index, int[] w, int from, int to) {
+        ensureCapacity(index.V());
+        nextEpochW();
+        for (int k = from; k < to; k++) {
+            int x = w[k];
+            labelEntries += index.to(x) - index.from(x);
+            int[] ancestors = index.ancestors(x);
+            int[] dists = index.dists(x);
+            for (int i = index.from(x), end = index.to(x); i < end; i++) {
+                int a = ancestors[i];
+                if (markV[a] == epochV) relax(a, dists[i] + distV[a]);
+            }
+        }
+    }
+
+    private void seedV(int x) {
+        if (markV[x] != epochV) visitV(x, 0);
+    }
+
+    private void seedW(int x) {
+        if (markW[x] != epochW) visitW(x, 0);
+    }
+
+    private void expand() {
+        int depth = 0;
+        // every vertex at distance <= depth from both sides is known, so any path not found yet
+        // has length >= depth + 1
+        while ((headV < tailV || headW < tailW) && (length == -1 || length > depth + 1)) {
+            while (headV < tailV && distV[queueV[headV]] == depth) {
+                int y = queueV[headV++];
+                int[] targets = graph.targets(y);
+                for (int i = graph.start(y), end = graph.end(y); i < end; i++) {
+                    int x = targets[i];
+                    if (markV[x] != epochV) visitV(x, depth + 1);
+                }
+            }
+            while (headW < tailW && distW[queueW[headW]] == depth) {
+                int y = queueW[headW++];
+                int[] targets = graph.targets(y);
+                for (int i = graph.start(y), end = graph.end(y); i < end; i++) {
+                    int x = targets[i];
+                    if (markW[x] != epochW) visitW(x, depth + 1);
+                }
+            }
+            depth++;
+        }
+    }
+
+    private void visitV(int x, int dist) {
+        markV[x] = epochV;
+        distV[x] = dist;
+        queueV[tailV++] = x;
+        if (markW[x] == epochW) relax(x, dist + distW[x]);
+    }
+
+    private void visitW(int x, int dist) {
+        markW[x] = epochW;
+        distW[x] = dist;
+        queueW[tailW++] = x;
+        if (markV[x] == epochV) relax(x, dist + distV[x]);
+    }
+
+    private void relax(int x, int len) {
+        if (length == -1 || len < length) {
+            length = len;
+            ancestor = x;
+        }
+    }
+
+    // invalidates every mark of the previous search on one side; the marks are only rewritten
+    // when the epoch counter wraps around
+    private void nextEpochV() {
+        if (++epochV == Integer.MAX_VALUE) {
+            Arrays.fill(markV, 0);
+            epochV = 1;
+        }
+        headV = tailV = 0;
+        labelEntries = 0;
+    }
+
+    private void nextEpochW() {
+        if (++epochW == Integer.MAX_VALUE) {
+            Arrays.fill(markW, 0);
+            epochW = 1;
+        }
+        headW = tailW = 0;
+        length = -1;
+        ancestor = -1;
+    }
+}
@@ -0,0 +1,161 @@
+import edu.princeton.cs.algs4.Digraph;
+
+import java.util.Arrays;
+
+// Immutable digraph in compressed sparse row form: the heads of the edges leaving v are
+// targets(v)[i] for i in [start(v), end(v)). Two int arrays replace the Bag of boxed Integers
+// per vertex of an algs4 Digraph, so a traversal walks contiguous memory.
+//
+// withVertex() and withEdge() return a new digraph that shares these arrays and keeps the
+// rows that changed in a RowOverlay, so a live graph can grow without being rebuilt while
+// readers keep using the version they started with. compact() folds the overlay back into
+// flat arrays.
+public class CompactDigraph {
+
+    private final int[] offsets;
+    private final int[] targets;
+    private final int V;
+    private final int E;
+    private final RowOverlay changed;
+
+    // copy of G, keeping the order of each adjacency list
+    public CompactDigraph(Digraph G) {
+        if (G == null)
+            throw new IllegalArgumentException();
+        offsets = new int[G.V() + 1];
+        targets = new int[G.E()];
+        int i = 0;
+        for (int v = 0; v < G.V(); v++) {
+            for (int w : G.adj(v)) targets[i++] = w;
+            offsets[v + 1] = i;
+        }
+        V = G.V();
+        E = G.E();
+        changed = RowOverlay.EMPTY;
+    }
+
+    // the rows of a digraph with V vertices; offsets has V + 1 entries, the last one being E
+    CompactDigraph(int[] offsets, int[] targets) {
+        this(offsets, targets, offsets.length - 1, targets.length, RowOverlay.EMPTY);
+    }
+
+    private CompactDigraph(int[] offsets, int[] targets, int V, int E, RowOverlay changed) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.V = V;
+        this.E = E;
+        this.changed = changed;
+    }
+
+    // digraph with V vertices and the edges of a hypernyms file: each line is a vertex
+    // followed by the vertices it has an edge to, separated by commas
+    public static CompactDigraph readHypernyms(String file, int V) {
+        if (file == null)
+            throw new IllegalArgumentException();
+        return WordNetLoader.readHypernyms(file, V);
+    }
+
+    // digraph with V vertices and the edges from[i] -> to[i] for i < E, each row keeping the
+    // order in which its edges are listed
+    static CompactDigraph fromEdges(int V, int[] from, int[] to, int E) {
+        int[] offsets = new int[V + 1];
+        for (int i = 0; i < E; i++) {
+            if (from[i] < 0 || from[i] >= V || to[i] < 0 || to[i] >= V)
+                throw new IllegalArgumentException("edge " + from[i] + "->" + to[i] + " out of range");
+            offsets[from[i] + 1]++;
+        }
+        for (int v = 0; v < V; v++) offsets[v + 1] += offsets[v];
+        int[] next = Arrays.copyOf(offsets, V);
+        int[] targets = new int[E];
+        for (int i = 0; i < E; i++) targets[next[from[i]]++] = to[i];
+        return new CompactDigraph(offsets, targets);
+    }
+
+    public int V() {
+        return V;
+    }
+
+    public int E() {
+        return E;
+    }
+
+    public int outdegree(int v) {
+        return end(v) - start(v);
+    }
+
+    // array holding the heads of the edges leaving v; callers must not modify it
+    public int[] targets(int v) {
+        int[] row = changed.get(v);
+        return row != null ? row : targets;
+    }
+
+    // first index of the edges leaving v in targets(v)
+    public int start(int v) {
+        return changed.get(v) != null ? 0 : offsets[v];
+    }
+
+    // one past the last index of the edges leaving v in targets(v)
+    public int end(int v) {
+        int[] row = changed.get(v);
+        return row != null ? row.length : offsets[v + 1];
+    }
+
+    // this digraph with one more vertex, V(), whose edges go to heads
+    public CompactDigraph withVertex(int... heads) {
+        for (int w : heads) {
+            if (w < 0 || w > V)
+                throw new IllegalArgumentException("vertex " + w + " is not between 0 and " + V);
+        }
+        return new CompactDigraph(offsets, targets, V + 1, E + heads.length, changed.with(V, heads.clone()));
+    }
+
+    // this digraph with the edge v->w added
+    public CompactDigraph withEdge(int v, int w) {
+        if (v < 0 || v >= V || w < 0 || w >= V)
+            throw new IllegalArgumentException("edge " + v + "->" + w + " out of range");
+        int from = start(v);
+        int to = end(v);
+        int[] row = Arrays.copyOfRange(targets(v), from, to + 1);
+        row[to - from] = w;
+        return new CompactDigraph(offsets, targets, V, E + 1, changed.with(v, row));
+    }
+
+    // the same digraph with every row in flat arrays again
+    public CompactDigraph compact() {
+        if (changed.size() == 0) return this;
+        int[] flatOffsets = new int[V + 1];
+        int[] flatTargets = new int[E];
+        for (int v = 0; v < V; v++) {
+            int n = end(v) - start(v);
+            System.arraycopy(targets(v), start(v), flatTargets, flatOffsets[v], n);
+            flatOffsets[v + 1] = flatOffsets[v] + n;
+        }
+        return new CompactDigraph(flatOffsets, flatTargets);
+    }
+
+    // the digraph with every edge reversed
+    public CompactDigraph reverse() {
+        int[] from = new int[E];
+        int[] to = new int[E];
+        int i = 0;
+        for (int v = 0; v < V; v++) {
+            int[] row = targets(v);
+            for (int j = start(v); j < end(v); j++) {
+                from[i] = row[j];
+                to[i++] = v;
+            }
+        }
+        return fromEdges(V, from, to, E);
+    }
+
+    // the same graph as an algs4 Digraph
+    public Digraph toDigraph() {
+        Digraph G = new Digraph(V);
+        for (int v = 0; v < V; v++) {
+            // Bag iterates in reverse insertion order
+            int[] row = targets(v);
+            for (int i = end(v) - 1; i >= start(v); i--) G.addEdge(v, row[i]);
+        }
+        return G;
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Checks that a digraph is a rooted DAG without recursion, so that deep hierarchies cannot
+// overflow the stack: Kahn's algorithm removes the vertices without incoming edges level by
+// level, and the graph is acyclic if every vertex gets removed. The indegrees and each large
+// level are processed in parallel on the common fork-join pool.
+//
+// A hypernyms file that passed the check can be recorded on request in a sidecar file next to
+// it, named after it with ".dag" appended, holding the digest WordNetLoader computed of the
+// bytes it read and the number of synsets it was checked with. Later loads of the same file
+// skip the check.
+class DagCheck {
+
+    // levels and vertex ranges smaller than this are processed by the calling thread
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    private static final String SIDECAR_SUFFIX = ".dag";
+
+    // the vertices of graph in topological order, every edge going from a vertex to a later
+    // one, or null if graph has a cycle
+    static int[] topologicalOrder(CompactDigraph graph) {
+        int V = graph.V();
+        AtomicIntegerArray indegree = new AtomicIntegerArray(V);
+        ForkJoinPool.commonPool().invoke(new CountIndegrees(graph, indegree, 0, V));
+        int[] order = new int[V];
+        AtomicInteger tail = new AtomicInteger();
+        for (int v = 0; v < V; v++) {
+            if (indegree.get(v) == 0) order[tail.getAndIncrement()] = v;
+        }
+        int from = 0;
+        int to = tail.get();
+        while (from < to) {
+            if (to - from < PARALLEL_THRESHOLD) removeLevel(graph, indegree, order, tail, from, to);
+            else ForkJoinPool.commonPool().invoke(new RemoveLevel(graph, indegree, order, tail, from, to));
+            from = to;
+            to = tail.get();
+        }
+        return to == V ? order : null;
+    }
+
+    // throws if graph has a cycle or has not exactly one vertex without outgoing edges
+    static void checkRootedDag(CompactDigraph graph) {
+        if (topologicalOrder(graph) == null)
+            throw new IllegalArgumentException("the hypernym graph has a cycle");
+        int roots = 0;
+        for (int v = 0; v < graph.V(); v++) {
+            if (graph.outdegree(v) == 0) roots++;
+        }
+        if (roots != 1)
+            throw new IllegalArgumentException("the hypernym graph has " + roots + " roots");
+    }
+
+    // true if hypernymsFile was recorded by trust() with fingerprint
+    static boolean isTrusted(String hypernymsFile, String fingerprint) {
+        Path sidecar = Paths.get(hypernymsFile + SIDECAR_SUFFIX);
+        if (!Files.isRegularFile(sidecar)) return false;
+        try {
+            String recorded = new String(Files.readAllBytes(sidecar), StandardCharsets.UTF_8).trim();
+            return recorded.equals(fingerprint);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    // records that hypernymsFile, when read with the given fingerprint, is a rooted DAG
+    static void trust(String hypernymsFile, String fingerprint) {
+        try {
+            Files.write(Paths.get(hypernymsFile + SIDECAR_SUFFIX), (fingerprint + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not record " + hypernymsFile + " as checked", e);
+        }
+    }
+
+    // fingerprint of a hypernyms file read with digest WordNetLoader.hypernymsDigest, on V synsets
+    static String fingerprint(byte[] digest, int V) {
+        StringBuilder hex = new StringBuilder("rooted-dag V=").append(V).append(" sha256=");
+        for (byte b : digest) hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // removes the vertices order[from..to), appending the vertices left without incoming
+    // edges to order
+    private static void removeLevel(CompactDigraph graph, AtomicIntegerArray indegree, int[] order,
+                                    AtomicInteger tail, int from, int to) {
+        for (int k = from; k < to; k++) {
+            int v = order[k];
+            int[] targets = graph.targets(v);
+            for (int i = graph.start(v), end = graph.end(v); i < end; i++) {
+                int w = targets[i];
+                if (indegree.decrementAndGet(w) == 0) order[tail.getAndIncrement()] = w;
+            }
+        }
+    }
+
+    private static final class CountIndegrees extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final CompactDigraph graph;
+        private final AtomicIntegerArray indegree;
+        private final int from;
+        private final int to;
+
+        CountIndegrees(CompactDigraph graph, AtomicIntegerArray indegree, int from, int to) {
+            this.graph = graph;
+            this.indegree = indegree;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PARALLEL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CountIndegrees(graph, indegree, from, mid), new CountIndegrees(graph, indegree, mid, to));
+                return;
+            }
+            for (int v = from; v < to; v++) {
+                int[] targets = graph.targets(v);
+                for (int i = graph.start(v), end = graph.end(v); i < end; i++) indegree.incrementAndGet(targets[i]);
+            }
+        }
+    }
+
+    private static final class RemoveLevel extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final CompactDigraph graph;
+        private final AtomicIntegerArray indegree;
+        private final int[] order;
+        private final AtomicInteger tail;
+        private final int from;
+        private final int to;
+
+        RemoveLevel(CompactDigraph graph, AtomicIntegerArray indegree, int[] order, AtomicInteger tail, int from, int to) {
+            this.graph = graph;
+            this.indegree = indegree;
+            this.order = order;
+            this.tail = tail;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PARALLEL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RemoveLevel(graph, indegree, order, tail, from, mid),
+                          new RemoveLevel(graph, indegree, order, tail, mid, to));
+                return;
+            }
+            removeLevel(graph, indegree, order, tail, from, to);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+// Writes the n x n distance matrix of a list of nouns to a file, for subsets of nouns whose
+// matrix does not fit in memory as int[][]. The file is
+//
+//   int magic, int version, int n, int cell bytes, int tile, long CRC32 of the nouns and
+//   their synset ids, int V, int E, long CRC32 of the graph's rows, done-tiles bitmap,
+//   padding to a multiple of 8, n * n cells
+//
+// where the cells are row-major unsigned integers of 1 or 2 bytes, big-endian, and the
+// largest value means no path. Block (i, j) is done if bit i * tiles + j of the bitmap, with
+// tiles = ceil(n / tile), is set, counting from the lowest bit of each byte. One byte is used
+// when every distance of the graph fits, judging by its height.
+//
+// The matrix is computed in parallel in tile x tile blocks on or above the diagonal, each
+// written together with its mirror image through a memory mapping of its rows. A block's bit
+// is set in the bitmap only after its cells reach the disk, so an interrupted export resumes
+// with the blocks that were not done yet when it is started again on the same file. The
+// header identifies the nouns and the graph the blocks were computed on, so the export starts
+// over if either changed in between.
+class DistanceMatrix {
+
+    private static final int MAGIC = 0x574e444d; // "WNDM"
+    private static final int VERSION = 2;
+    private static final int FIXED_HEADER_BYTES = 44;
+    private static final int TILE = 256;
+
+    private final SAP sap;
+    private final NounIndex nouns;
+    private final int[] ids;
+    private final int n;
+    private final int cellBytes;
+    private final int tiles;
+    private final long dataStart;
+    private final FileChannel channel;
+    private final MappedByteBuffer bitmap;
+
+    private DistanceMatrix(SAP sap, NounIndex nouns, int[] ids, int cellBytes, FileChannel channel) throws IOException {
+        this.sap = sap;
+        this.nouns = nouns;
+        this.ids = ids;
+        this.channel = channel;
+        this.cellBytes = cellBytes;
+        n = ids.length;
+        tiles = (n + TILE - 1) / TILE;
+        int bitmapBytes = (int) (((long) tiles * tiles + 7) / 8);
+        dataStart = (FIXED_HEADER_BYTES + bitmapBytes + 7) & ~7L;
+        bitmap = channel.map(FileChannel.MapMode.READ_WRITE, FIXED_HEADER_BYTES, bitmapBytes);
+    }
+
+    // computes the distances between the nouns with indices ids in nouns and writes them to
+    // file, keeping the blocks already done if file holds an unfinished export of the same
+    // nouns on the same graph; returns the number of blocks computed
+    static int export(SAP sap, NounIndex nouns, String[] names, int[] ids, String file) {
+        CompactDigraph graph = sap.graph();
+        int max = maxDistance(graph);
+        if (max >= 0xffff)
+            throw new IllegalArgumentException("distances up to " + max + " do not fit in 16 bits");
+        int cellBytes = max < 0xff ? 1 : 2;
+        long checksum = checksum(names, nouns, ids);
+        long graphChecksum = checksum(graph);
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, FIXED_HEADER_BYTES);
+            boolean resume = header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == ids.length
+                && header.getInt(12) == cellBytes && header.getInt(16) == TILE && header.getLong(20) == checksum
+                && header.getInt(28) == graph.V() && header.getInt(32) == graph.E() && header.getLong(36) == graphChecksum;
+            if (!resume) {
+                // a new export: the bitmap must start out clear
+                channel.truncate(FIXED_HEADER_BYTES);
+                header.putInt(0, 0);
+                header.force();
+            }
+            DistanceMatrix matrix = new DistanceMatrix(sap, nouns, ids, cellBytes, channel);
+            if (!resume) {
+                channel.write(ByteBuffer.allocate(1), matrix.dataStart + (long) ids.length * ids.length * cellBytes - 1);
+                header.putInt(4, VERSION);
+                header.putInt(8, ids.length);
+                header.putInt(12, cellBytes);
+                header.putInt(16, TILE);
+                header.putLong(20, checksum);
+                header.putInt(28, graph.V());
+                header.putInt(32, graph.E());
+                header.putLong(36, graphChecksum);
+                header.force();
+                header.putInt(0, MAGIC);
+                header.force();
+            }
+            return matrix.run();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int run() {
+        List<Block> pending = new ArrayList<Block>();
+        for (int i = 0; i < tiles; i++) {
+            for (int j = i; j < tiles; j++) {
+                if (!isDone(i, j)) pending.add(new Block(i, j));
+            }
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(pending);
+            }
+        });
+        return pending.size();
+    }
+
+    private synchronized boolean isDone(int i, int j) {
+        long bit = (long) i * tiles + j;
+        return (bitmap.get((int) (bit >>> 3)) & (1 << (bit & 7))) != 0;
+    }
+
+    private synchronized void markDone(int i, int j) {
+        long bit = (long) i * tiles + j;
+        int at = (int) (bit >>> 3);
+        bitmap.put(at, (byte) (bitmap.get(at) | (1 << (bit & 7))));
+        bitmap.force();
+    }
+
+    // the block of rows [i * TILE, ...) and columns [j * TILE, ...), and its mirror image
+    private final class Block extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int i;
+        private final int j;
+
+        Block(int i, int j) {
+            this.i = i;
+            this.j = j;
+        }
+
+        @Override
+        protected void compute() {
+            int rowFrom = i * TILE;
+            int rowTo = Math.min(n, rowFrom + TILE);
+            int columnFrom = j * TILE;
+            int columnTo = Math.min(n, columnFrom + TILE);
+            int[] cells = new int[(rowTo - rowFrom) * (columnTo - columnFrom)];
+            AncestralSearch search = sap.workspace();
+            for (int r = rowFrom; r < rowTo; r++) {
+                int s = ids[r];
+                sap.prepare(search, nouns.postings(s), nouns.from(s), nouns.to(s));
+                for (int c = columnFrom; c < columnTo; c++) {
+                    int t = ids[c];
+                    sap.probe(search, nouns.postings(t), nouns.from(t), nouns.to(t));
+                    cells[(r - rowFrom) * (columnTo - columnFrom) + c - columnFrom] = search.length();
+                }
+            }
+            try {
+                write(cells, rowFrom, rowTo, columnFrom, columnTo, false);
+                if (i != j) write(cells, columnFrom, columnTo, rowFrom, rowTo, true);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            markDone(i, j);
+        }
+
+        // writes cells, or their transpose, to rows [rowFrom, rowTo) and columns
+        // [columnFrom, columnTo) of the file
+        private void write(int[] cells, int rowFrom, int rowTo, int columnFrom, int columnTo, boolean transposed)
+            throws IOException {
+            long start = dataStart + ((long) rowFrom * n + columnFrom) * cellBytes;
+            long end = dataStart + ((long) (rowTo - 1) * n + columnTo) * cellBytes;
+            MappedByteBuffer rows = channel.map(FileChannel.MapMode.READ_WRITE, start, end - start);
+            int width = columnTo - columnFrom;
+            int height = rowTo - rowFrom;
+            for (int r = 0; r < height; r++) {
+                int at = r * n * cellBytes;
+                for (int c = 0; c < width; c++) {
+                    int d = transposed ? cells[c * height + r] : cells[r * width + c];
+                    if (cellBytes == 1) rows.put(at + c, (byte) (d < 0 ? 0xff : d));
+                    else rows.putShort(at + 2 * c, (short) (d < 0 ? 0xffff : d));
+                }
+            }
+            rows.force();
+        }
+    }
+
+    // an upper bound on the length of a shortest ancestral path: twice the longest path in
+    // graph, or twice V - 1 if graph has a cycle
+    private static int maxDistance(CompactDigraph graph) {
+        int[] order = DagCheck.topologicalOrder(graph);
+        if (order == null) return 2 * (graph.V() - 1);
+        // height[x] is the longest path ending at x
+        int[] height = new int[graph.V()];
+        int longest = 0;
+        for (int v : order) {
+            longest = Math.max(longest, height[v]);
+            int[] targets = graph.targets(v);
+            for (int i = graph.start(v), end = graph.end(v); i < end; i++) {
+                int w = targets[i];
+                height[w] = Math.max(height[w], height[v] + 1);
+            }
+        }
+        return 2 * longest;
+    }
+
+    // CRC32 of the nouns and of the synset ids of each, ids[i] being the index of names[i]
+    private static long checksum(String[] names, NounIndex nouns, int[] ids) {
+        CRC32 crc = new CRC32();
+        ByteBuffer id = ByteBuffer.allocate(4);
+        for (int i = 0; i < names.length; i++) {
+            crc.update(names[i].getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+            int[] postings = nouns.postings(ids[i]);
+            for (int k = nouns.from(ids[i]); k < nouns.to(ids[i]); k++) {
+                id.putInt(0, postings[k]);
+                crc.update(id.array());
+            }
+        }
+        return crc.getValue();
+    }
+
+    // CRC32 of the rows of graph: the targets of every vertex in turn, each row ended by -1
+    private static long checksum(CompactDigraph graph) {
+        CRC32 crc = new CRC32();
+        ByteBuffer row = ByteBuffer.allocate(4 * 1024);
+        for (int v = 0; v < graph.V(); v++) {
+            int[] targets = graph.targets(v);
+            for (int i = graph.start(v), end = graph.end(v); i <= end; i++) {
+                if (!row.hasRemaining()) {
+                    crc.update(row.array(), 0, row.position());
+                    row.clear();
+                }
+                row.putInt(i < end ? targets[i] : -1);
+            }
+        }
+        crc.update(row.array(), 0, row.position());
+        return crc.getValue();
+    }
+}
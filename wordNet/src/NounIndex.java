@@ -0,0 +1,231 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Noun -> synset ids dictionary kept in flat arrays: the nouns in sorted order in a
+// StringTable, and the ids of every noun stored back to back in one postings array. The ids
+// of the noun with index i are postings(i)[k] for k in [from(i), to(i)). Lookups are binary
+// searches over the sorted nouns, so there is no per-noun object besides the noun string
+// itself, and none at all when the table keeps its strings off the heap.
+//
+// withSynset() returns a new index that shares these arrays: nouns that gain a synset get
+// their ids from a RowOverlay, and nouns that did not exist yet are numbered from size() of
+// the flat index on and found through AddedNouns, a hash table that versions share in the same
+// way. build() turns everything flat again.
+class NounIndex {
+
+    private final StringTable nouns;
+    private final int[] offsets;
+    private final int[] postings;
+    private final RowOverlay changed;
+    private final AddedNouns added;
+
+    NounIndex(StringTable nouns, int[] offsets, int[] postings) {
+        this(nouns, offsets, postings, RowOverlay.EMPTY, AddedNouns.EMPTY);
+    }
+
+    private NounIndex(StringTable nouns, int[] offsets, int[] postings, RowOverlay changed, AddedNouns added) {
+        this.nouns = nouns;
+        this.offsets = offsets;
+        this.postings = postings;
+        this.changed = changed;
+        this.added = added;
+    }
+
+    // index of the nouns of synsets, where synsets.get(id) lists the nouns of synset id
+    // separated by spaces; the nouns are kept off the heap if offHeap is set
+    static NounIndex build(StringTable synsets, boolean offHeap) {
+        // number the distinct nouns in order of appearance, remembering every occurrence
+        HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+        String[] names = new String[16];
+        int[] occurrenceNoun = new int[Math.max(16, synsets.size())];
+        int[] occurrenceId = new int[occurrenceNoun.length];
+        int occurrences = 0;
+        for (int id = 0; id < synsets.size(); id++) {
+            for (String noun : synsets.get(id).split(" ")) {
+                Integer number = numbers.get(noun);
+                if (number == null) {
+                    number = numbers.size();
+                    numbers.put(noun, number);
+                    if (number == names.length) names = Arrays.copyOf(names, 2 * number);
+                    names[number] = noun;
+                }
+                if (occurrences == occurrenceNoun.length) {
+                    occurrenceNoun = Arrays.copyOf(occurrenceNoun, 2 * occurrences);
+                    occurrenceId = Arrays.copyOf(occurrenceId, 2 * occurrences);
+                }
+                occurrenceNoun[occurrences] = number;
+                occurrenceId[occurrences++] = id;
+            }
+        }
+        int n = numbers.size();
+        String[] sorted = Arrays.copyOf(names, n);
+        Arrays.sort(sorted);
+        int[] rank = new int[n];
+        for (int i = 0; i < n; i++) rank[i] = Arrays.binarySearch(sorted, names[i]);
+
+        // counting sort of the occurrences by the rank of their noun
+        int[] offsets = new int[n + 1];
+        for (int k = 0; k < occurrences; k++) offsets[rank[occurrenceNoun[k]] + 1]++;
+        for (int i = 0; i < n; i++) offsets[i + 1] += offsets[i];
+        int[] next = Arrays.copyOf(offsets, n);
+        int[] postings = new int[occurrences];
+        for (int k = 0; k < occurrences; k++) postings[next[rank[occurrenceNoun[k]]]++] = occurrenceId[k];
+        return new NounIndex(offHeap ? StringTable.offHeap(sorted) : StringTable.onHeap(sorted), offsets, postings);
+    }
+
+    // this index with synset id, whose nouns are separated by spaces, added
+    NounIndex withSynset(int id, String synset) {
+        RowOverlay newChanged = changed;
+        AddedNouns newAdded = added;
+        for (String noun : synset.split(" ")) {
+            int i = nouns.binarySearch(noun);
+            if (i < 0) {
+                int k = newAdded.indexOf(noun);
+                if (k < 0) {
+                    k = newAdded.size();
+                    newAdded = newAdded.with(noun);
+                }
+                i = nouns.size() + k;
+            }
+            int[] ids = newChanged.get(i);
+            int from = ids != null ? 0 : i < nouns.size() ? offsets[i] : 0;
+            int to = ids != null ? ids.length : i < nouns.size() ? offsets[i + 1] : 0;
+            if (ids == null) ids = postings;
+            int[] row = Arrays.copyOfRange(ids, from, to + 1);
+            if (to > from && row[to - from - 1] == id) continue;
+            row[to - from] = id;
+            newChanged = newChanged.with(i, row);
+        }
+        return new NounIndex(nouns, offsets, postings, newChanged, newAdded);
+    }
+
+    int size() {
+        return nouns.size() + added.size();
+    }
+
+    // index of noun, or -1 if it is not a noun
+    int indexOf(String noun) {
+        int i = nouns.binarySearch(noun);
+        if (i >= 0) return i;
+        int k = added.indexOf(noun);
+        return k < 0 ? -1 : nouns.size() + k;
+    }
+
+    String noun(int i) {
+        return i < nouns.size() ? nouns.get(i) : added.get(i - nouns.size());
+    }
+
+    // all nouns, in sorted order except for the nouns added since the index was built, which
+    // come last; each noun is decoded when it is read
+    List<String> nouns() {
+        int n = size();
+        return new AbstractList<String>() {
+            @Override
+            public String get(int i) {
+                if (i < 0 || i >= n) throw new IndexOutOfBoundsException();
+                return noun(i);
+            }
+
+            @Override
+            public int size() {
+                return n;
+            }
+        };
+    }
+
+    // the synset ids of noun i are postings(i)[from(i)] to postings(i)[to(i) - 1]; callers
+    // must not modify the array
+    int[] postings(int i) {
+        int[] row = changed.get(i);
+        return row != null ? row : postings;
+    }
+
+    int from(int i) {
+        return changed.get(i) != null ? 0 : offsets[i];
+    }
+
+    int to(int i) {
+        int[] row = changed.get(i);
+        return row != null ? row.length : offsets[i + 1];
+    }
+
+    // Persistent hash table of the nouns added since the index was built, numbered 0, 1, ... in
+    // order of addition. Open addressing over slots holding number + 1, in chunks of 1024
+    // like RowOverlay: with() copies only the top-level array and the chunk it writes to, and
+    // rebuilds the table at twice the size once it is half full, so an addition costs
+    // amortized O(size / 1024 + 1024) and earlier versions stay valid.
+    private static final class AddedNouns {
+        private static final int SHIFT = 10;
+        private static final int MASK = (1 << SHIFT) - 1;
+
+        static final AddedNouns EMPTY = new AddedNouns(new String[0], 0, new int[0][]);
+
+        // only the first size names belong to this version, later ones are filled by later
+        // versions
+        private final String[] names;
+        private final int size;
+        private final int[][] chunks;
+
+        private AddedNouns(String[] names, int size, int[][] chunks) {
+            this.names = names;
+            this.size = size;
+            this.chunks = chunks;
+        }
+
+        int size() {
+            return size;
+        }
+
+        String get(int k) {
+            return names[k];
+        }
+
+        // number of noun, or -1 if it was not added
+        int indexOf(String noun) {
+            if (size == 0) return -1;
+            int mask = (chunks.length << SHIFT) - 1;
+            for (int s = hash(noun) & mask; ; s = (s + 1) & mask) {
+                int slot = chunks[s >>> SHIFT][s & MASK];
+                if (slot == 0) return -1;
+                if (names[slot - 1].equals(noun)) return slot - 1;
+            }
+        }
+
+        // this table with noun, which must not be in it, numbered size()
+        AddedNouns with(String noun) {
+            String[] a = names;
+            if (size == a.length) a = Arrays.copyOf(a, Math.max(16, 2 * size));
+            a[size] = noun;
+            int capacity = chunks.length << SHIFT;
+            if (2 * (size + 1) > capacity) {
+                int[][] table = new int[Math.max(1, 2 * chunks.length)][1 << SHIFT];
+                for (int k = 0; k <= size; k++) {
+                    int s = free(table, a[k]);
+                    table[s >>> SHIFT][s & MASK] = k + 1;
+                }
+                return new AddedNouns(a, size + 1, table);
+            }
+            int[][] copy = chunks.clone();
+            int s = free(copy, noun);
+            int[] chunk = copy[s >>> SHIFT].clone();
+            chunk[s & MASK] = size + 1;
+            copy[s >>> SHIFT] = chunk;
+            return new AddedNouns(a, size + 1, copy);
+        }
+
+        // the first empty slot of table on the probe sequence of noun
+        private static int free(int[][] table, String noun) {
+            int mask = (table.length << SHIFT) - 1;
+            int s = hash(noun) & mask;
+            while (table[s >>> SHIFT][s & MASK] != 0) s = (s + 1) & mask;
+            return s;
+        }
+
+        private static int hash(String noun) {
+            int h = noun.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -9,14 +9,17 @@ public class Outcast {
         wn = wordnet;
     }
 
-    // given an array of WordNet nouns, return an outcast
+    // given an array of WordNet nouns, return an outcast. The pairwise distances come from a
+    // single WordNet.distances() call, which computes every unordered pair once, reusing the
+    // search from each noun for all of its partners, and runs the rows in parallel
     public String outcast(String[] nouns) {
+        int[][] pairs = wn.distances(nouns);
         int[] distances = new int[nouns.length];
         String outcast = "";
         int currentDistance = 0;
         for (int i = 0; i < nouns.length; i++) {
-            for (String nounB: nouns) {
-                distances[i] += wn.distance(nouns[i], nounB);
+            for (int d: pairs[i]) {
+                distances[i] += d;
             }
             if (distances[i] > currentDistance) {
                 currentDistance = distances[i];
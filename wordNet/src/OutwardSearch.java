@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+// Breadth-first search outward from a set of vertices along ancestral paths: up through the
+// edges of a digraph and then down through the edges of its reverse, never up again. The
+// vertices are produced one radius at a time, so the d-th call to nextLevel() yields the
+// vertices whose shortest ancestral path to the sources has length d.
+//
+// A vertex is searched in two states, still going up or already going down. Going up to a
+// vertex also reaches it going down at no extra cost, and a vertex is reported the first time
+// it is reached going down.
+//
+// Like AncestralSearch, the arrays form a workspace reused by every search: a vertex counts as
+// reached in a state only if its mark for that state equals the current epoch, so start()
+// touches only the sources and a search costs what it visits, not V.
+class OutwardSearch {
+
+    private CompactDigraph graph;
+    private CompactDigraph reverse;
+    private int[] markUp = new int[0];
+    private int[] markDown = markUp;
+    private int[] upLevel = markUp;
+    private int[] downLevel = markUp;
+    private int[] nextUp = markUp;
+    private int[] nextDown = markUp;
+    private int epoch;
+    private int upSize;
+    private int downSize;
+    private int radius;
+
+    // starts a search of graph from the vertices sources[from..to); reverse must be the
+    // reverse of graph. Returns this
+    OutwardSearch start(CompactDigraph graph, CompactDigraph reverse, int[] sources, int from, int to) {
+        this.graph = graph;
+        this.reverse = reverse;
+        ensureCapacity(graph.V());
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(markUp, 0);
+            Arrays.fill(markDown, 0);
+            epoch = 1;
+        }
+        upSize = 0;
+        downSize = 0;
+        radius = -1;
+        for (int k = from; k < to; k++) {
+            int x = sources[k];
+            if (markUp[x] != epoch) {
+                markUp[x] = epoch;
+                upLevel[upSize++] = x;
+            }
+        }
+        return this;
+    }
+
+    // makes room for vertices 0 to V - 1
+    private void ensureCapacity(int V) {
+        if (V <= markUp.length) return;
+        int capacity = Math.max(V, markUp.length + (markUp.length >> 3));
+        markUp = Arrays.copyOf(markUp, capacity);
+        markDown = Arrays.copyOf(markDown, capacity);
+        upLevel = new int[capacity];
+        downLevel = new int[capacity];
+        nextUp = new int[capacity];
+        nextDown = new int[capacity];
+    }
+
+    // moves to the next radius; returns false once every reachable vertex was reported
+    boolean nextLevel() {
+        if (radius >= 0) expand();
+        for (int i = 0; i < upSize; i++) {
+            int x = upLevel[i];
+            if (markDown[x] != epoch) {
+                markDown[x] = epoch;
+                downLevel[downSize++] = x;
+            }
+        }
+        radius++;
+        return upSize > 0 || downSize > 0;
+    }
+
+    // the vertices at the current radius are level()[0] to level()[size() - 1]
+    int[] level() {
+        return downLevel;
+    }
+
+    int size() {
+        return downSize;
+    }
+
+    int radius() {
+        return radius;
+    }
+
+    private void expand() {
+        int nextUpSize = 0;
+        for (int i = 0; i < upSize; i++) {
+            int y = upLevel[i];
+            int[] targets = graph.targets(y);
+            for (int j = graph.start(y), end = graph.end(y); j < end; j++) {
+                int x = targets[j];
+                if (markUp[x] != epoch) {
+                    markUp[x] = epoch;
+                    nextUp[nextUpSize++] = x;
+                }
+            }
+        }
+        int nextDownSize = 0;
+        for (int i = 0; i < downSize; i++) {
+            int y = downLevel[i];
+            int[] targets = reverse.targets(y);
+            for (int j = reverse.start(y), end = reverse.end(y); j < end; j++) {
+                int x = targets[j];
+                if (markDown[x] != epoch) {
+                    markDown[x] = epoch;
+                    nextDown[nextDownSize++] = x;
+                }
+            }
+        }
+        int[] swap = upLevel;
+        upLevel = nextUp;
+        nextUp = swap;
+        upSize = nextUpSize;
+        swap = downLevel;
+        downLevel = nextDown;
+        nextDown = swap;
+        downSize = nextDownSize;
+    }
+}
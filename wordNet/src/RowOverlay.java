@@ -0,0 +1,45 @@
+import java.util.Arrays;
+
+// Persistent map from a vertex to an int[] row, layered over an immutable flat structure to
+// record the rows that changed since it was built. with() returns a new overlay and copies
+// only the top-level array and the chunk of 1024 slots holding the vertex, so an update costs
+// O(V / 1024 + 1024) and the previous version stays valid for readers still using it.
+final class RowOverlay {
+
+    private static final int SHIFT = 10;
+    private static final int MASK = (1 << SHIFT) - 1;
+
+    static final RowOverlay EMPTY = new RowOverlay(new int[0][][], 0);
+
+    private final int[][][] chunks;
+    private final int size;
+
+    private RowOverlay(int[][][] chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    // row of v, or null if it did not change
+    int[] get(int v) {
+        int c = v >>> SHIFT;
+        if (c >= chunks.length) return null;
+        int[][] chunk = chunks[c];
+        return chunk == null ? null : chunk[v & MASK];
+    }
+
+    // this overlay with the row of v replaced by row, which must not be modified afterwards
+    RowOverlay with(int v, int[] row) {
+        int c = v >>> SHIFT;
+        int[][][] copy = Arrays.copyOf(chunks, Math.max(chunks.length, c + 1));
+        int[][] chunk = copy[c] == null ? new int[1 << SHIFT][] : copy[c].clone();
+        int added = chunk[v & MASK] == null ? 1 : 0;
+        chunk[v & MASK] = row;
+        copy[c] = chunk;
+        return new RowOverlay(copy, size + added);
+    }
+
+    // number of vertices with a changed row
+    int size() {
+        return size;
+    }
+}
@@ -1,122 +1,233 @@
-import edu.princeton.cs.algs4.BreadthFirstDirectedPaths;
 import edu.princeton.cs.algs4.Digraph;
 import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
+// Safe to share between threads: each thread searches with its own AncestralSearch workspace,
+// and the optional cache is thread-safe. addVertex() and addEdge() publish a new version of
+// the graph (and of the index, if any) while queries keep running against the version they
+// started with.
 public class SAP {
 
-    private final Digraph graph;
-    private BreadthFirstDirectedPaths bfsv;
-    private BreadthFirstDirectedPaths bfsw;
+    private volatile CompactDigraph graph;
+    private final ThreadLocal<AncestralSearch> workspace;
+    private volatile SAPCache cache;
+    private volatile AncestorIndex index;
+    private volatile SAPMetrics metrics;
+    // the reverse of graph, built when first needed and updated by writers from then on
+    private CompactDigraph reverse;
 
     // constructor takes a digraph (not necessarily a DAG)
     public SAP(Digraph G) {
+        this(new CompactDigraph(G));
+    }
+
+    // searches G directly; it is immutable, so no copy is needed
+    public SAP(CompactDigraph G) {
         if (G == null)
             throw new IllegalArgumentException();
-        graph = new Digraph(G);
+        graph = G;
+        workspace = ThreadLocal.withInitial(() -> new AncestralSearch(graph));
+    }
+
+    // caches up to capacity results of single vertex queries; returns the cache so its hit
+    // rate can be polled
+    public SAPCache enableCache(int capacity, SAPCache.Policy policy) {
+        cache = new SAPCache(capacity, policy);
+        return cache;
+    }
+
+    // records every query answered from now on, logging those that take at least
+    // slowQueryNanos; returns the metrics so they can be polled
+    public SAPMetrics enableMetrics(long slowQueryNanos) {
+        if (slowQueryNanos < 0)
+            throw new IllegalArgumentException();
+        metrics = new SAPMetrics(slowQueryNanos);
+        return metrics;
+    }
+
+    public void disableMetrics() {
+        metrics = null;
+    }
+
+    // precomputes the ancestors of every vertex with their distances, after which queries
+    // merge two small sorted lists instead of searching the graph. Meant for DAGs such as
+    // WordNet's, where every vertex has few ancestors; the index takes 8 bytes per
+    // (vertex, ancestor) pair. Returns that number of pairs
+    public synchronized long indexAncestors() {
+        AncestorIndex built = new AncestorIndex(graph);
+        index = built;
+        return built.size();
     }
 
     // length of shortest ancestral path between v and w; -1 if no such path
     public int length(int v, int w) {
-        return findShortest(v, w)[0];
-
+        return SAPCache.length(findShortest(v, w));
     }
 
-    private int[] findShortest(int v, int w) {
-        if (v < 0 || v > graph.V() || w < 0 || w > graph.V())
+    // length and ancestor packed with SAPCache.pack
+    private long findShortest(int v, int w) {
+        CompactDigraph g = graph;
+        if (v < 0 || v >= g.V() || w < 0 || w >= g.V())
             throw new IllegalArgumentException();
-        int[] result = new int[2];
-        if (v == w) {
-            result[0] = 0;
-            result[1] = w;
-            return result;
-        };
-        bfsv = new BreadthFirstDirectedPaths(graph, v);
-        bfsw = new BreadthFirstDirectedPaths(graph, w);
-
-        int shortestLength = Integer.MAX_VALUE;
-        int shortestAncestor = -1;
-
-
-        for (int i = 0; i < graph.V(); ++i) {
-            if (bfsv.hasPathTo(i) && bfsw.hasPathTo(i)) {
-                int len = bfsv.distTo(i) + bfsw.distTo(i);
-                if (len < shortestLength) {
-                    shortestLength = len;
-                    shortestAncestor = i;
-                }
-            }
+        SAPCache c = cache;
+        long key = 0;
+        if (c != null) {
+            key = SAPCache.key(v, w);
+            Long cached = c.get(key);
+            if (cached != null) return cached;
         }
-
-        if (shortestAncestor == -1) {
-            result[0] = -1;
-            result[1] = -1;
+        SAPMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        long result;
+        AncestorIndex idx = index;
+        if (idx != null) {
+            result = idx.shortest(v, w);
+            if (m != null) m.record(start, idx.to(v) - idx.from(v) + idx.to(w) - idx.from(w), 0, v, w);
         }
         else {
-            result[0] = shortestLength;
-            result[1] = shortestAncestor;
+            AncestralSearch search = workspace.get().on(g);
+            search.search(v, w);
+            result = SAPCache.pack(search.length(), search.ancestor());
+            if (m != null) m.record(start, search.visited(), search.edgesRelaxed(), v, w);
+        }
+        if (c != null) {
+            c.put(key, result);
+            // an update published during the query may have cleared the cache before the put
+            if (graph != g) c.clear();
         }
         return result;
     }
 
-        // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
+    // a common ancestor of v and w that participates in a shortest ancestral path; -1 if no such path
     public int ancestor(int v, int w) {
-        return findShortest(v, w)[1];
+        return SAPCache.ancestor(findShortest(v, w));
     }
 
-
     // length of shortest ancestral path between any vertex in v and any vertex in w; -1 if no such path
     public int length(Iterable<Integer> v, Iterable<Integer> w) {
-        isNull(v, w);
-        int shortest = -1;
-        for (int x: v) {
-            for (int y: w) {
-                int current = length(x, y);
-                if (current == -1) return -1;
-                if (shortest == -1) shortest = current;
-                else if (current < shortest) {
-                    shortest = current;
-                }
-            }
-        }
-        return shortest;
+        return SAPCache.length(shortest(v, w));
     }
 
     // a common ancestor that participates in shortest ancestral path; -1 if no such path
     public int ancestor(Iterable<Integer> v, Iterable<Integer> w) {
-        isNull(v, w);
-        int shortest = -1;
-        int minx = 0;
-        int miny = 0;
-        for (int x: v) {
-            for (int y: w) {
-                int current = length(x, y);
-                if (current == -1) return -1;
-                if (shortest == -1) shortest = current;
-                else if (current < shortest) {
-                    shortest = current;
-                    minx = x;
-                    miny = y;
-                }
-            }
+        return SAPCache.ancestor(shortest(v, w));
+    }
+
+    // the graph searched by this SAP
+    CompactDigraph graph() {
+        return graph;
+    }
+
+    // the calling thread's search workspace, for one-to-many queries through prepare()/probe()
+    AncestralSearch workspace() {
+        return workspace.get().on(graph);
+    }
+
+    // search.prepare(v, from, to) from the index if there is one, from the graph otherwise
+    void prepare(AncestralSearch search, int[] v, int from, int to) {
+        AncestorIndex idx = index;
+        if (idx != null) search.prepare(idx, v, from, to);
+        else search.prepare(v, from, to);
+    }
+
+    // search.probe(w, from, to) matching the last prepare(search, v, from, to)
+    void probe(AncestralSearch search, int[] w, int from, int to) {
+        AncestorIndex idx = index;
+        if (idx != null) search.probe(idx, w, from, to);
+        else search.probe(w, from, to);
+    }
+
+    // adds a vertex with edges to heads; returns the new vertex
+    synchronized int addVertex(int[] heads) {
+        CompactDigraph g = graph.withVertex(heads);
+        int x = g.V() - 1;
+        if (reverse != null) {
+            reverse = reverse.withVertex();
+            for (int h : heads) reverse = reverse.withEdge(h, x);
+        }
+        publish(g, new int[] { x }, 1);
+        return x;
+    }
+
+    // adds the edge v->w; every vertex that reaches v gets a new label in the index
+    synchronized void addEdge(int v, int w) {
+        CompactDigraph g = graph.withEdge(v, w);
+        AncestorIndex idx = index;
+        if (idx == null) {
+            if (reverse != null) reverse = reverse.withEdge(w, v);
+            publish(g, null, 0);
+            return;
         }
-        return ancestor(minx, miny);
+        if (reverse == null) reverse = graph.reverse();
+        reverse = reverse.withEdge(w, v);
+        AncestralSearch search = workspace.get().on(reverse);
+        search.prepare(new int[] { v }, 0, 1);
+        int[] changed = search.reached();
+        publish(g, changed, changed.length);
     }
 
-    private void isNull(Iterable<Integer> v, Iterable<Integer> w) {
-        if (v == null || w == null) {
+    // the index is published before the graph, so a reader that sees the new graph also sees
+    // an index covering all of its vertices
+    private void publish(CompactDigraph g, int[] changed, int n) {
+        AncestorIndex idx = index;
+        if (idx != null) index = idx.relabel(g, changed, n);
+        graph = g;
+        SAPCache c = cache;
+        if (c != null) c.clear();
+    }
+
+    // the reverse of graph(), built on first use and then kept up to date by the updates;
+    // matches graph() once their V() and E() agree, as both only grow
+    synchronized CompactDigraph reverse() {
+        if (reverse == null) reverse = graph.reverse();
+        return reverse;
+    }
+
+    // true if there is a path from v to w
+    boolean reaches(int v, int w) {
+        AncestorIndex idx = index;
+        if (idx != null && v < idx.V()) return idx.reaches(v, w);
+        AncestralSearch search = workspace();
+        search.prepare(new int[] { v }, 0, 1);
+        return search.reached(w);
+    }
+
+    // length and ancestor of the sets v and w packed with SAPCache.pack
+    long shortest(Iterable<Integer> v, Iterable<Integer> w) {
+        int[] vs = vertices(v);
+        int[] ws = vertices(w);
+        return shortest(vs, 0, vs.length, ws, 0, ws.length, v, w);
+    }
+
+    // length and ancestor of the sets v[vFrom..vTo) and w[wFrom..wTo), which must be valid
+    // vertices, packed with SAPCache.pack; a and b describe the query in the slow query log
+    long shortest(int[] v, int vFrom, int vTo, int[] w, int wFrom, int wTo, Object a, Object b) {
+        SAPMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0;
+        AncestralSearch search = workspace();
+        AncestorIndex idx = index;
+        if (idx != null) search.search(idx, v, vFrom, vTo, w, wFrom, wTo);
+        else search.search(v, vFrom, vTo, w, wFrom, wTo);
+        if (m != null) m.record(start, search.visited(), search.edgesRelaxed(), a, b);
+        return SAPCache.pack(search.length(), search.ancestor());
+    }
+
+    private int[] vertices(Iterable<Integer> v) {
+        if (v == null) {
             throw new NullPointerException("argument is null");
         }
+        int V = graph.V();
+        int n = 0;
         for (int x: v) {
-            if (x < 0 || x >= graph.V()) {
-                throw new IndexOutOfBoundsException("vertex " + v + " is not between 0 and " + (graph.V()-1));
-            }
-        }
-        for (int x: w) {
-            if (x < 0 || x >= graph.V()) {
-                throw new IndexOutOfBoundsException("vertex " + v + " is not between 0 and " + (graph.V()-1));
+            if (x < 0 || x >= V) {
+                throw new IndexOutOfBoundsException("vertex " + x + " is not between 0 and " + (V-1));
             }
+            n++;
         }
+        int[] vertices = new int[n];
+        int i = 0;
+        for (int x: v) vertices[i++] = x;
+        return vertices;
     }
 
     // do unit testing of this class
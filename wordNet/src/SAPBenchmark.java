@@ -0,0 +1,198 @@
+import edu.princeton.cs.algs4.Digraph;
+import edu.princeton.cs.algs4.In;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Benchmarks of the SAP and WordNet query paths: single vertex, multi-source and batch
+// queries over the bundled digraph*.txt files and over a synthetic rooted DAG, with and
+// without the ancestor index. Every benchmark is warmed up and then run for a fixed time,
+// and reports throughput, latency percentiles and the bytes allocated per operation by the
+// calling thread (batch work done on pool threads is not counted).
+//
+//   java SAPBenchmark resources [V [hypernyms per synset [seconds]]]
+//
+// The WordNet benchmarks run on resources/synsets.txt and resources/hypernyms.txt if both
+// exist, and on a synthetic taxonomy of V synsets otherwise.
+public class SAPBenchmark {
+
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private final double seconds;
+    // keeps the results alive so that the JIT cannot drop the queries
+    private long sink;
+
+    private SAPBenchmark(double seconds) {
+        this.seconds = seconds;
+    }
+
+    private interface Operation {
+        long run(int i);
+    }
+
+    // runs operation i = 0, 1, 2, ... for the warm-up and then for the measured time
+    private void measure(String name, Operation operation) {
+        run(operation, seconds / 2, null);
+        long[] samples = new long[MAX_SAMPLES];
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+        int ops = run(operation, seconds, samples);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        int n = Math.min(ops, MAX_SAMPLES);
+        Arrays.sort(samples, 0, n);
+        StdOut.printf("%-44s %12.0f %10.2f %10.2f %10.2f %10.2f %10.0f%n", name, ops / elapsed,
+                      percentile(samples, n, 0.50), percentile(samples, n, 0.90),
+                      percentile(samples, n, 0.99), percentile(samples, n, 0.999), (double) allocated / ops);
+    }
+
+    // returns the number of operations run in the given time
+    private int run(Operation operation, double time, long[] samples) {
+        long end = System.nanoTime() + (long) (time * 1e9);
+        int ops = 0;
+        long now = System.nanoTime();
+        while (now < end) {
+            sink += operation.run(ops);
+            long after = System.nanoTime();
+            if (samples != null && ops < samples.length) samples[ops] = after - now;
+            now = after;
+            ops++;
+        }
+        return ops;
+    }
+
+    // latency percentile in microseconds
+    private static double percentile(long[] sorted, int n, double p) {
+        if (n == 0) return Double.NaN;
+        return sorted[Math.min(n - 1, (int) (p * n))] / 1e3;
+    }
+
+    // random pairs and random sets of vertices of a graph, drawn once so that drawing them is
+    // not measured
+    private static int[] vertices(int V, int n) {
+        int[] vertices = new int[n];
+        for (int i = 0; i < n; i++) vertices[i] = StdRandom.uniform(V);
+        return vertices;
+    }
+
+    private static List<List<Integer>> sets(int V, int count, int size) {
+        List<List<Integer>> sets = new ArrayList<List<Integer>>();
+        for (int i = 0; i < count; i++) {
+            List<Integer> set = new ArrayList<Integer>();
+            for (int k = 0; k < size; k++) set.add(StdRandom.uniform(V));
+            sets.add(set);
+        }
+        return sets;
+    }
+
+    private void benchmarkSAP(String name, SAP sap, int V) {
+        int[] v = vertices(V, 1 << 16);
+        int[] w = vertices(V, 1 << 16);
+        measure(name + " length", i -> sap.length(v[i & 0xffff], w[i & 0xffff]));
+        measure(name + " ancestor", i -> sap.ancestor(v[i & 0xffff], w[i & 0xffff]));
+        List<List<Integer>> a = sets(V, 1024, 5);
+        List<List<Integer>> b = sets(V, 1024, 5);
+        measure(name + " length 5x5", i -> sap.length(a.get(i & 1023), b.get(i & 1023)));
+    }
+
+    private void benchmarkWordNet(String name, WordNet wordnet) {
+        List<String> all = new ArrayList<String>();
+        for (String noun : wordnet.nouns()) all.add(noun);
+        String[] a = new String[1 << 16];
+        String[] b = new String[1 << 16];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = all.get(StdRandom.uniform(all.size()));
+            b[i] = all.get(StdRandom.uniform(all.size()));
+        }
+        measure(name + " distance", i -> wordnet.distance(a[i & 0xffff], b[i & 0xffff]));
+        measure(name + " sap", i -> wordnet.sap(a[i & 0xffff], b[i & 0xffff]).length());
+        measure(name + " distances 50x50", i -> {
+            int from = Math.floorMod(50 * i, a.length - 50);
+            return wordnet.distances(Arrays.copyOfRange(a, from, from + 50), Arrays.copyOfRange(b, from, from + 50)).length;
+        });
+        Outcast outcast = new Outcast(wordnet);
+        measure(name + " outcast 8", i -> {
+            int from = Math.floorMod(8 * i, a.length - 8);
+            return outcast.outcast(Arrays.copyOfRange(a, from, from + 8)).length();
+        });
+        measure(name + " nearest 10", i -> wordnet.nearest(a[i & 0xffff], 10).size());
+    }
+
+    // a rooted DAG written as synsets and hypernyms files: synset 0 is the root, and every
+    // other synset v has one hypernym in [v / 2, v), which keeps the depth logarithmic, plus up
+    // to hypernyms - 1 more anywhere in [0, v)
+    private static String[] syntheticTaxonomy(int V, int hypernyms) {
+        try {
+            File synsets = File.createTempFile("synsets", ".txt");
+            File edges = File.createTempFile("hypernyms", ".txt");
+            synsets.deleteOnExit();
+            edges.deleteOnExit();
+            try (PrintWriter s = new PrintWriter(synsets, "UTF-8"); PrintWriter h = new PrintWriter(edges, "UTF-8")) {
+                for (int v = 0; v < V; v++) {
+                    s.println(v + ",noun" + v + (v % 3 == 0 ? " shared" + (v / 3 % 1000) : "") + ",synthetic");
+                    if (v == 0) continue;
+                    StringBuilder line = new StringBuilder().append(v).append(',').append(v / 2 + StdRandom.uniform(v - v / 2));
+                    for (int k = 1; k < hypernyms && v > 1; k++) line.append(',').append(StdRandom.uniform(v));
+                    h.println(line);
+                }
+            }
+            return new String[] { synsets.getPath(), edges.getPath() };
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        String resources = args[0];
+        int V = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int hypernyms = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        SAPBenchmark benchmark = new SAPBenchmark(args.length > 3 ? Double.parseDouble(args[3]) : 2);
+        StdRandom.setSeed(42);
+        StdOut.printf("%-44s %12s %10s %10s %10s %10s %10s%n", "benchmark", "ops/s", "p50 us", "p90 us",
+                      "p99 us", "p99.9 us", "B/op");
+
+        File[] digraphs = new File(resources).listFiles((dir, file) -> file.matches("digraph\\d+\\.txt"));
+        if (digraphs != null) {
+            Arrays.sort(digraphs);
+            for (File file : digraphs) {
+                Digraph G = new Digraph(new In(file));
+                benchmark.benchmarkSAP(file.getName(), new SAP(G), G.V());
+            }
+        }
+
+        String[] taxonomy;
+        String name;
+        if (new File(resources, "synsets.txt").exists() && new File(resources, "hypernyms.txt").exists()) {
+            taxonomy = new String[] { new File(resources, "synsets.txt").getPath(), new File(resources, "hypernyms.txt").getPath() };
+            name = "wordnet";
+        }
+        else {
+            taxonomy = syntheticTaxonomy(V, hypernyms);
+            name = "synthetic " + V + "/" + hypernyms;
+        }
+        WordNet wordnet = new WordNet(taxonomy[0], taxonomy[1]);
+        CompactDigraph graph = CompactDigraph.readHypernyms(taxonomy[1], countLines(taxonomy[0]));
+        SAP sap = new SAP(graph);
+        benchmark.benchmarkSAP(name, sap, graph.V());
+        benchmark.benchmarkWordNet(name, wordnet);
+        sap.indexAncestors();
+        wordnet.indexAncestors();
+        benchmark.benchmarkSAP(name + " indexed", sap, graph.V());
+        benchmark.benchmarkWordNet(name + " indexed", wordnet);
+        StdOut.println("(sink " + benchmark.sink + ")");
+    }
+
+    private static int countLines(String file) {
+        return new In(file).readAllLines().length;
+    }
+}
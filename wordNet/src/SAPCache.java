@@ -0,0 +1,151 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Size-bounded cache of shortest ancestral path results, keyed by a pair of vertices packed
+// into a long. The length and the ancestor of a query are packed into one long and stored
+// together, so asking for the length and then the ancestor of the same pair costs a single
+// search. Queries are symmetric, so callers build keys with key(int, int), which does not
+// depend on the order of the two vertices.
+// All methods are safe to call from several threads.
+public class SAPCache {
+
+    // which entry is dropped when the cache is full: the least recently used one, or the
+    // oldest inserted one regardless of how often it is read
+    public enum Policy { LRU, FIFO }
+
+    private final Segment[] segments;
+
+    public SAPCache(int capacity, Policy policy) {
+        if (capacity <= 0 || policy == null)
+            throw new IllegalArgumentException();
+        // independently locked segments keep concurrent readers from queueing on one lock;
+        // eviction is then LRU/FIFO within a segment
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() && 2 * n <= capacity) n *= 2;
+        Segment[] s = new Segment[n];
+        for (int i = 0; i < n; i++)
+            s[i] = new Segment(capacity / n + (i < capacity % n ? 1 : 0), policy == Policy.LRU);
+        segments = s;
+    }
+
+    private Segment segment(long key) {
+        int h = Long.hashCode(key);
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    // packed result for key, or null (counted as a miss) if it is not cached
+    Long get(long key) {
+        return segment(key).get(key);
+    }
+
+    void put(long key, long result) {
+        segment(key).put(key, result);
+    }
+
+    public void clear() {
+        for (Segment s : segments) s.clear();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment s : segments) size += s.size();
+        return size;
+    }
+
+    public long hits() {
+        long hits = 0;
+        for (Segment s : segments) hits += s.hits();
+        return hits;
+    }
+
+    public long misses() {
+        long misses = 0;
+        for (Segment s : segments) misses += s.misses();
+        return misses;
+    }
+
+    public long evictions() {
+        long evictions = 0;
+        for (Segment s : segments) evictions += s.evictions();
+        return evictions;
+    }
+
+    // fraction of lookups answered from the cache; 0 if there was no lookup yet
+    public double hitRate() {
+        long hits = hits();
+        long lookups = hits + misses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    // order-independent key for the pair (v, w)
+    static long key(int v, int w) {
+        return v < w ? (long) v << 32 | w : (long) w << 32 | v;
+    }
+
+    static long pack(int length, int ancestor) {
+        return (long) length << 32 | (ancestor & 0xffffffffL);
+    }
+
+    static int length(long result) {
+        return (int) (result >> 32);
+    }
+
+    static int ancestor(long result) {
+        return (int) result;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " hits=" + hits() + " misses=" + misses()
+                + " evictions=" + evictions();
+    }
+
+    private static final class Segment {
+        private final LinkedHashMap<Long, Long> entries;
+        private long hits;
+        private long misses;
+        private long evictions;
+
+        Segment(final int capacity, boolean accessOrder) {
+            entries = new LinkedHashMap<Long, Long>(16, 0.75f, accessOrder) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                    if (size() <= capacity) return false;
+                    evictions++;
+                    return true;
+                }
+            };
+        }
+
+        synchronized Long get(long key) {
+            Long result = entries.get(key);
+            if (result == null) misses++;
+            else hits++;
+            return result;
+        }
+
+        synchronized void put(long key, long result) {
+            entries.put(key, result);
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long hits() {
+            return hits;
+        }
+
+        synchronized long misses() {
+            return misses;
+        }
+
+        synchronized long evictions() {
+            return evictions;
+        }
+    }
+}
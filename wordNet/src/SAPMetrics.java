@@ -0,0 +1,152 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+// Counters of the queries answered by a SAP once SAP.enableMetrics() was called: how many
+// vertices each query visited (label entries when the ancestor index answers it), how many
+// edges it relaxed, and its wall time in a histogram with one bucket per power of two of
+// nanoseconds. Queries slower than a threshold are logged with their inputs to the "SAP"
+// java.util.logging logger at WARNING level. The batch queries behind WordNet.distances()
+// are not recorded.
+//
+// Thread-safe; queries running on different threads record into the same counters. When
+// metrics are disabled a query pays a single volatile read.
+public class SAPMetrics {
+
+    private static final Logger LOG = Logger.getLogger("SAP");
+    private static final int BUCKETS = 64;
+
+    private final long slowQueryNanos;
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder visited = new LongAdder();
+    private final LongAdder edges = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder slowQueries = new LongAdder();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    SAPMetrics(long slowQueryNanos) {
+        this.slowQueryNanos = slowQueryNanos;
+    }
+
+    // records a query that started at System.nanoTime() start; a and b describe its inputs
+    void record(long start, int visitedVertices, int relaxedEdges, Object a, Object b) {
+        long time = System.nanoTime() - start;
+        queries.increment();
+        visited.add(visitedVertices);
+        edges.add(relaxedEdges);
+        nanos.add(time);
+        histogram.incrementAndGet(bucket(time));
+        if (time >= slowQueryNanos) {
+            slowQueries.increment();
+            if (LOG.isLoggable(Level.WARNING))
+                LOG.warning(String.format("slow query (%s, %s): %.3f ms, %d vertices visited, %d edges relaxed",
+                                          a, b, time / 1e6, visitedVertices, relaxedEdges));
+        }
+    }
+
+    private static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public long queries() {
+        return queries.sum();
+    }
+
+    public long visited() {
+        return visited.sum();
+    }
+
+    public long edgesRelaxed() {
+        return edges.sum();
+    }
+
+    public long totalNanos() {
+        return nanos.sum();
+    }
+
+    public long slowQueries() {
+        return slowQueries.sum();
+    }
+
+    // histogram()[i] is the number of queries that took [2^i, 2^(i+1)) nanoseconds
+    public long[] histogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) counts[i] = histogram.get(i);
+        return counts;
+    }
+
+    // upper bound in nanoseconds of the wall time of the fraction p of the queries, within a
+    // factor of two; 0 if there were no queries
+    public long percentileNanos(double p) {
+        if (p < 0 || p > 1)
+            throw new IllegalArgumentException();
+        long[] counts = histogram();
+        long total = 0;
+        for (long count : counts) total += count;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        }
+        return 0;
+    }
+
+    public void reset() {
+        queries.reset();
+        visited.reset();
+        edges.reset();
+        nanos.reset();
+        slowQueries.reset();
+        for (int i = 0; i < BUCKETS; i++) histogram.set(i, 0);
+    }
+
+    @Override
+    public String toString() {
+        long n = queries();
+        return String.format("queries=%d visited/query=%.1f edges/query=%.1f mean=%.1fus p50<=%dus p99<=%dus slow=%d",
+                             n, n == 0 ? 0.0 : (double) visited() / n, n == 0 ? 0.0 : (double) edgesRelaxed() / n,
+                             n == 0 ? 0.0 : totalNanos() / 1e3 / n, percentileNanos(0.5) / 1000,
+                             percentileNanos(0.99) / 1000, slowQueries());
+    }
+
+    // the attributes shown over JMX
+    public interface Attributes {
+        long getQueries();
+        long getVisited();
+        long getEdgesRelaxed();
+        long getTotalNanos();
+        long getSlowQueries();
+        long getP50Nanos();
+        long getP99Nanos();
+        long[] getHistogram();
+    }
+
+    // publishes these metrics on the platform MBean server under name, such as
+    // "wordnet:type=SAPMetrics"; returns the registered name
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            Attributes attributes = new Attributes() {
+                public long getQueries() { return queries(); }
+                public long getVisited() { return visited(); }
+                public long getEdgesRelaxed() { return edgesRelaxed(); }
+                public long getTotalNanos() { return totalNanos(); }
+                public long getSlowQueries() { return slowQueries(); }
+                public long getP50Nanos() { return percentileNanos(0.5); }
+                public long getP99Nanos() { return percentileNanos(0.99); }
+                public long[] getHistogram() { return histogram(); }
+            };
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(attributes, Attributes.class), objectName);
+            return objectName;
+        }
+        catch (JMException e) {
+            throw new IllegalArgumentException("could not register " + name, e);
+        }
+    }
+}
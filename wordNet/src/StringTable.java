@@ -0,0 +1,119 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Immutable list of strings, kept either as String objects on the heap or as UTF-8 bytes in a
+// single byte region outside of it: a direct buffer, or the mapped region of a snapshot. In
+// the region string i is an int length followed by its bytes, starting at offsets[i], and it
+// is only decoded when get(i) is called, so the heap holds 4 bytes per string instead of a
+// String and its array.
+//
+// with() returns a table with one more string; strings added that way are kept on the heap in
+// an array shared between versions, of which each version only reads its own prefix.
+final class StringTable {
+
+    private final String[] heap;
+    private final ByteBuffer bytes;
+    private final int[] offsets;
+    private final int base;
+    private final String[] added;
+    private final int size;
+
+    private StringTable(String[] heap, ByteBuffer bytes, int[] offsets, int base, String[] added, int size) {
+        this.heap = heap;
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.base = base;
+        this.added = added;
+        this.size = size;
+    }
+
+    // the strings on the heap; the array must not be modified afterwards
+    static StringTable onHeap(String[] strings) {
+        return new StringTable(strings, null, null, strings.length, new String[0], strings.length);
+    }
+
+    // the strings copied as UTF-8 into a direct buffer
+    static StringTable offHeap(String[] strings) {
+        byte[][] encoded = new byte[strings.length][];
+        long total = 0;
+        for (int i = 0; i < strings.length; i++) {
+            encoded[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            total += 4 + encoded[i].length;
+        }
+        if (total > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("strings take more than 2 GB");
+        ByteBuffer bytes = ByteBuffer.allocateDirect((int) total);
+        int[] offsets = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i] = bytes.position();
+            bytes.putInt(encoded[i].length);
+            bytes.put(encoded[i]);
+        }
+        return new StringTable(null, bytes, offsets, strings.length, new String[0], strings.length);
+    }
+
+    // the strings laid out in region from offsets[i] on as an int length and UTF-8 bytes
+    static StringTable inRegion(ByteBuffer region, int[] offsets) {
+        return new StringTable(null, region, offsets, offsets.length, new String[0], offsets.length);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // true if the strings given at construction are kept outside of the heap
+    boolean offHeap() {
+        return bytes != null;
+    }
+
+    String get(int i) {
+        if (i >= base) return added[i - base];
+        if (heap != null) return heap[i];
+        int at = offsets[i];
+        byte[] utf8 = new byte[bytes.getInt(at)];
+        bytes.get(at + 4, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    // get(i).compareTo(key), comparing ASCII strings in place without decoding them
+    int compareTo(int i, String key) {
+        if (i >= base || heap != null) return get(i).compareTo(key);
+        int at = offsets[i] + 4;
+        int length = bytes.getInt(at - 4);
+        int n = Math.min(length, key.length());
+        for (int k = 0; k < n; k++) {
+            byte b = bytes.get(at + k);
+            char c = key.charAt(k);
+            if (b < 0 || c >= 0x80) return get(i).compareTo(key);
+            if (b != c) return b - c;
+        }
+        for (int k = n; k < length; k++) {
+            if (bytes.get(at + k) < 0) return get(i).compareTo(key);
+        }
+        return length - key.length();
+    }
+
+    // index of key in this table, which must be sorted, or a negative number if it is absent
+    int binarySearch(String key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareTo(mid, key);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    // this table with s appended at index size()
+    StringTable with(String s) {
+        int k = size - base;
+        String[] a = added;
+        if (k == a.length) a = Arrays.copyOf(a, Math.max(16, 2 * k));
+        a[k] = s;
+        return new StringTable(heap, bytes, offsets, base, a, size + 1);
+    }
+}
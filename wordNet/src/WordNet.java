@@ -1,100 +1,365 @@
-import edu.princeton.cs.algs4.Bag;
-import edu.princeton.cs.algs4.Digraph;
-import edu.princeton.cs.algs4.DirectedCycle;
-import edu.princeton.cs.algs4.In;
 import edu.princeton.cs.algs4.StdOut;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 public class WordNet {
 
-    private final HashMap<Integer, String> idToSynset;
-    private final HashMap<String, Bag<Integer>> wordToIds;
+    // synsets.get(id) is the second field of synsets.txt for synset id
+    private volatile StringTable synsets;
+    private volatile NounIndex nouns;
     private final SAP sap;
+    private volatile SAPCache cache;
+    // the hypernyms file this WordNet was read from and the fingerprint of what was read, for
+    // trustHypernyms(); null if it was loaded from a snapshot
+    private final String hypernymsFile;
+    private final String hypernymsFingerprint;
+    // each thread's workspace for nearest()
+    private final ThreadLocal<OutwardSearch> outward = ThreadLocal.withInitial(OutwardSearch::new);
 
     // constructor takes the name of the two input files
     public WordNet(String synsets, String hypernyms) {
+        this(synsets, hypernyms, false);
+    }
+
+    // like WordNet(synsets, hypernyms), keeping the synset and noun strings off the heap as
+    // UTF-8 bytes if offHeap is set; they are then decoded on every use
+    public WordNet(String synsets, String hypernyms, boolean offHeap) {
         if (synsets == null || hypernyms == null)
             throw new IllegalArgumentException();
-        idToSynset = new HashMap<Integer, String>();
-        wordToIds = new HashMap<String, Bag<Integer>>();
-        readSynsets(synsets);
-        sap = new SAP(readHypernyms(hypernyms));
-    }
-
-    private void readSynsets(String synsetsFile) {
-        In in = new In(synsetsFile);
-        while (in.hasNextLine()) {
-            String[] words = in.readLine().split(",");
-            int id = Integer.parseInt(words[0]);
-            idToSynset.put(id, words[1]);
-            for (String noun : words[1].split(" ")) {
-                Bag<Integer> bag = wordToIds.get(noun);
-                if (bag == null) {
-                    bag = new Bag<Integer>();
-                    bag.add(id);
-                    wordToIds.put(noun, bag);
-                }
-                else {
-                    bag.add(id);
-                }
-            }
-        }
+        WordNetLoader loaded = WordNetLoader.load(synsets, hypernyms);
+        // hypernyms recorded by trustHypernyms() with the same contents and number of synsets
+        // are not checked again
+        String fingerprint = DagCheck.fingerprint(loaded.hypernymsDigest, loaded.graph.V());
+        if (!DagCheck.isTrusted(hypernyms, fingerprint)) DagCheck.checkRootedDag(loaded.graph);
+        hypernymsFile = hypernyms;
+        hypernymsFingerprint = fingerprint;
+        this.synsets = offHeap ? StringTable.offHeap(loaded.synsets) : StringTable.onHeap(loaded.synsets);
+        nouns = NounIndex.build(this.synsets, offHeap);
+        sap = new SAP(loaded.graph);
     }
 
-    private Digraph readHypernyms(String hypernymsFile) {
-        In in = new In(hypernymsFile);
-        Digraph digraph = new Digraph(idToSynset.size());
-        while (in.hasNextLine()) {
-            String[] parts = in.readLine().split(",");
-            int v = Integer.parseInt(parts[0]);
-            for (int i = 1; i < parts.length; i++) {
-                int w = Integer.parseInt(parts[i]);
-                digraph.addEdge(v, w);
-            }
+    private WordNet(WordNetSnapshot snapshot) {
+        hypernymsFile = null;
+        hypernymsFingerprint = null;
+        synsets = snapshot.synsets;
+        nouns = snapshot.nouns;
+        sap = new SAP(snapshot.graph);
+    }
+
+    // records next to the hypernyms file, as that file's name with ".dag" appended, that it
+    // passed the rooted DAG check, so that later constructions from it skip the check. What is
+    // recorded is a digest of the bytes this WordNet read and checked, so if the file changed
+    // since, later constructions still check it
+    public void trustHypernyms() {
+        if (hypernymsFile == null)
+            throw new IllegalStateException("not read from a hypernyms file");
+        DagCheck.trust(hypernymsFile, hypernymsFingerprint);
+    }
+
+    // writes this WordNet to a binary snapshot that load() reads back without parsing the
+    // text files or validating the graph again
+    public synchronized void save(String snapshot) {
+        if (snapshot == null)
+            throw new IllegalArgumentException();
+        CompactDigraph graph = sap.graph().compact();
+        StringTable all = synsets;
+        new WordNetSnapshot(all, NounIndex.build(all, false), graph).write(snapshot);
+    }
+
+    // adds a synset with the given nouns, separated by spaces, and hypernyms, of which there
+    // must be at least one so that the graph stays rooted; returns its id. Queries running
+    // meanwhile see either the old or the new WordNet
+    public synchronized int addSynset(String synset, int... hypernyms) {
+        if (synset == null || synset.isEmpty() || hypernyms == null || hypernyms.length == 0)
+            throw new IllegalArgumentException();
+        int id = sap.graph().V();
+        for (int h : hypernyms) {
+            if (h < 0 || h >= id)
+                throw new IllegalArgumentException("synset " + h + " is not between 0 and " + (id - 1));
         }
-        checkIfRootedDAG(digraph);
-        return digraph;
-    }
-
-    private void checkIfRootedDAG(Digraph graph) {
-        // Check it is acyclic
-        DirectedCycle dc = new DirectedCycle(graph);
-        if (dc.hasCycle()) throw new IllegalArgumentException();
-        // check if it is rooted
-        int counter = 0;
-        for (int i = 0; i < graph.V(); i++) {
-            if (graph.outdegree(i) == 0) counter++;
-            if (counter >= 2) throw new IllegalArgumentException();
+        // the new synset has no hyponyms, so it cannot close a cycle
+        synsets = synsets.with(synset);
+        sap.addVertex(hypernyms);
+        nouns = nouns.withSynset(id, synset);
+        clearCache();
+        return id;
+    }
+
+    // adds synset -> hypernym to the hypernym graph; throws if synset already is an ancestor
+    // of hypernym, since the graph would no longer be a DAG
+    public synchronized void addHypernym(int synset, int hypernym) {
+        CompactDigraph graph = sap.graph();
+        if (synset < 0 || synset >= graph.V() || hypernym < 0 || hypernym >= graph.V())
+            throw new IllegalArgumentException();
+        int[] targets = graph.targets(synset);
+        for (int i = graph.start(synset); i < graph.end(synset); i++) {
+            if (targets[i] == hypernym) return;
         }
+        if (sap.reaches(hypernym, synset))
+            throw new IllegalArgumentException(synset + "->" + hypernym + " would create a cycle");
+        sap.addEdge(synset, hypernym);
+        clearCache();
+    }
+
+    private void clearCache() {
+        SAPCache c = cache;
+        if (c != null) c.clear();
+    }
+
+    // WordNet written by save(); throws if the file is not a snapshot or fails its checksum
+    public static WordNet load(String snapshot) {
+        return load(snapshot, false);
+    }
+
+    // like load(snapshot), reading the synset and noun strings from the mapped file when they
+    // are used instead of copying them to the heap if mapped is set
+    public static WordNet load(String snapshot, boolean mapped) {
+        if (snapshot == null)
+            throw new IllegalArgumentException();
+        return new WordNet(WordNetSnapshot.read(snapshot, mapped));
+    }
+
+    // writes the matrix of distance(nouns[i], nouns[j]) to file in the format described in
+    // DistanceMatrix, computing it in parallel blocks. If file holds an interrupted export of
+    // the same nouns, only the missing blocks are computed. Returns the number of blocks
+    // computed
+    public int exportDistances(String[] nouns, String file) {
+        if (nouns == null || file == null)
+            throw new IllegalArgumentException();
+        NounIndex index = this.nouns;
+        int[] ids = new int[nouns.length];
+        for (int i = 0; i < ids.length; i++) ids[i] = indexOf(index, nouns[i]);
+        return DistanceMatrix.export(sap, index, nouns, ids, file);
     }
 
     // returns all WordNet nouns
     public Iterable<String> nouns() {
-        return wordToIds.keySet();
+        return nouns.nouns();
     }
 
     // is the word a WordNet noun?
     public boolean isNoun(String word) {
         if (word == null)
             throw new IllegalArgumentException();
-        return wordToIds.containsKey(word);
+        return nouns.indexOf(word) >= 0;
+    }
+
+    // caches the results of up to capacity noun pairs for distance() and sap(); returns the
+    // cache so its hit rate can be polled
+    public SAPCache enableCache(int capacity, SAPCache.Policy policy) {
+        cache = new SAPCache(capacity, policy);
+        return cache;
+    }
+
+    // records every distance() and sap() query computed from now on, logging those that take
+    // at least slowQueryNanos with their nouns; returns the metrics so they can be polled or
+    // published over JMX with SAPMetrics.registerMBean()
+    public SAPMetrics enableMetrics(long slowQueryNanos) {
+        return sap.enableMetrics(slowQueryNanos);
+    }
+
+    public void disableMetrics() {
+        sap.disableMetrics();
     }
 
     // distance between nounA and nounB (defined below) O(n)
     public int distance(String nounA, String nounB) {
-        if (!isNoun(nounA) || !isNoun(nounB))
-            throw new IllegalArgumentException();
-        return sap.length(wordToIds.get(nounA), wordToIds.get(nounB));
+        return SAPCache.length(shortest(nounA, nounB));
     }
 
     // a synset (second field of synsets.txt) that is the common ancestor of nounA and nounB
     // in a shortest ancestral path (defined below) O(n)
     public String sap(String nounA, String nounB) {
-        if (!isNoun(nounA) || !isNoun(nounB))
+        int ancestor = SAPCache.ancestor(shortest(nounA, nounB));
+        return ancestor == -1 ? null : synsets.get(ancestor);
+    }
+
+    private long shortest(String nounA, String nounB) {
+        NounIndex index = nouns;
+        int a = indexOf(index, nounA);
+        int b = indexOf(index, nounB);
+        SAPCache c = cache;
+        if (c == null)
+            return shortest(index, a, b, nounA, nounB);
+        long key = SAPCache.key(a, b);
+        Long result = c.get(key);
+        if (result == null) {
+            result = shortest(index, a, b, nounA, nounB);
+            c.put(key, result);
+            // an update published during the query may have cleared the cache before the put
+            if (nouns != index) c.clear();
+        }
+        return result;
+    }
+
+    // shortest ancestral path between the synsets of nounA and nounB, which have indices a and b
+    private long shortest(NounIndex index, int a, int b, String nounA, String nounB) {
+        return sap.shortest(index.postings(a), index.from(a), index.to(a),
+                            index.postings(b), index.from(b), index.to(b), nounA, nounB);
+    }
+
+    // index of noun in a noun index; throws if it is not a noun
+    private static int indexOf(NounIndex nouns, String noun) {
+        if (noun == null)
+            throw new IllegalArgumentException();
+        int i = nouns.indexOf(noun);
+        if (i < 0)
+            throw new IllegalArgumentException(noun + " is not a WordNet noun");
+        return i;
+    }
+
+    // the k nouns closest to noun by distance(), closest first and in sorted order among nouns
+    // at the same distance; fewer if fewer nouns are connected to it. Searches outward from
+    // the synsets of noun once, one radius at a time, and stops at the first radius that
+    // completes the k nouns, instead of computing the distance to every noun
+    public List<String> nearest(String noun, int k) {
+        if (k < 0)
+            throw new IllegalArgumentException();
+        NounIndex index = nouns;
+        int i = indexOf(index, noun);
+        CompactDigraph graph;
+        CompactDigraph reverse;
+        do {
+            graph = sap.graph();
+            reverse = sap.reverse();
+        } while (graph.V() != reverse.V() || graph.E() != reverse.E());
+        StringTable names = synsets;
+        OutwardSearch search = outward.get().start(graph, reverse, index.postings(i), index.from(i), index.to(i));
+        List<String> nearest = new ArrayList<String>();
+        HashSet<String> seen = new HashSet<String>();
+        seen.add(noun);
+        List<String> level = new ArrayList<String>();
+        while (nearest.size() < k && search.nextLevel()) {
+            level.clear();
+            int[] synsetIds = search.level();
+            for (int j = 0; j < search.size(); j++) {
+                for (String name : names.get(synsetIds[j]).split(" ")) {
+                    if (seen.add(name)) level.add(name);
+                }
+            }
+            Collections.sort(level);
+            nearest.addAll(level.subList(0, Math.min(level.size(), k - nearest.size())));
+        }
+        return nearest;
+    }
+
+    // precomputes the ancestors of every synset so that distance() and sap() merge two small
+    // sorted lists instead of searching the hypernym graph; returns the number of
+    // (synset, ancestor) pairs stored
+    public long indexAncestors() {
+        return sap.indexAncestors();
+    }
+
+    // distances[i][j] is distance(nounsA[i], nounsB[j]). Repeated nouns are computed once, the
+    // search from each noun of nounsA is shared by all nouns of nounsB, and the rows are
+    // computed in parallel on the common fork-join pool
+    public int[][] distances(String[] nounsA, String[] nounsB) {
+        if (nounsA == null || nounsB == null)
+            throw new IllegalArgumentException();
+        NounIndex index = nouns;
+        int[] rows = new int[nounsA.length];
+        for (int i = 0; i < rows.length; i++) rows[i] = indexOf(index, nounsA[i]);
+        int[] columns = new int[nounsB.length];
+        for (int j = 0; j < columns.length; j++) columns[j] = indexOf(index, nounsB[j]);
+        int[] sources = distinct(rows);
+        int[] targets = distinct(columns);
+        int[][] unique = new int[sources.length][targets.length];
+        ForkJoinPool.commonPool().invoke(new DistanceRows(index, sources, targets, false, unique, 0, sources.length));
+        return expand(unique, sources, rows, targets, columns);
+    }
+
+    // distances[i][j] is distance(nouns[i], nouns[j]). Like distances(nouns, nouns), but each
+    // unordered pair of distinct nouns is computed once and the diagonal is not computed at all
+    public int[][] distances(String[] nouns) {
+        if (nouns == null)
             throw new IllegalArgumentException();
-        return idToSynset.get(sap.ancestor(wordToIds.get(nounA), wordToIds.get(nounB)));
+        NounIndex index = this.nouns;
+        int[] rows = new int[nouns.length];
+        for (int i = 0; i < rows.length; i++) rows[i] = indexOf(index, nouns[i]);
+        int[] sources = distinct(rows);
+        int[][] unique = new int[sources.length][sources.length];
+        ForkJoinPool.commonPool().invoke(new DistanceRows(index, sources, sources, true, unique, 0, sources.length));
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < i; j++) unique[i][j] = unique[j][i];
+        }
+        return expand(unique, sources, rows, sources, rows.clone());
+    }
+
+    // the matrix of rows x columns noun indices, given the matrix unique of their distinct
+    // values sources x targets
+    private static int[][] expand(int[][] unique, int[] sources, int[] rows, int[] targets, int[] columns) {
+        // map every noun to the position of its index among the distinct ones
+        for (int i = 0; i < rows.length; i++) rows[i] = Arrays.binarySearch(sources, rows[i]);
+        for (int j = 0; j < columns.length; j++) columns[j] = Arrays.binarySearch(targets, columns[j]);
+        int[][] distances = new int[rows.length][columns.length];
+        for (int i = 0; i < rows.length; i++) {
+            int[] from = unique[rows[i]];
+            for (int j = 0; j < columns.length; j++) distances[i][j] = from[columns[j]];
+        }
+        return distances;
+    }
+
+    // the distinct values of a, sorted
+    private static int[] distinct(int[] a) {
+        int[] sorted = a.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[n++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    // computes rows [from, to) of a distances() matrix, splitting until the rows are few
+    // enough to be worth a task of their own. If upper is set, sources and targets are the
+    // same and only the cells above the diagonal are computed
+    private final class DistanceRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int ROWS_PER_TASK = 4;
+        private final NounIndex nouns;
+        private final int[] sources;
+        private final int[] targets;
+        private final boolean upper;
+        private final int[][] result;
+        private final int from;
+        private final int to;
+
+        DistanceRows(NounIndex nouns, int[] sources, int[] targets, boolean upper, int[][] result, int from, int to) {
+            this.nouns = nouns;
+            this.sources = sources;
+            this.targets = targets;
+            this.upper = upper;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new DistanceRows(nouns, sources, targets, upper, result, from, mid),
+                          new DistanceRows(nouns, sources, targets, upper, result, mid, to));
+                return;
+            }
+            AncestralSearch search = sap.workspace();
+            for (int i = from; i < to; i++) {
+                int s = sources[i];
+                sap.prepare(search, nouns.postings(s), nouns.from(s), nouns.to(s));
+                for (int j = upper ? i + 1 : 0; j < targets.length; j++) {
+                    int t = targets[j];
+                    sap.probe(search, nouns.postings(t), nouns.from(t), nouns.to(t));
+                    result[i][j] = search.length();
+                }
+            }
+        }
     }
 
     // do unit testing of this class
@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Reads a synsets file and a hypernyms file in parallel. Both files are cut into chunks of
+// whole lines that are memory-mapped and parsed byte by byte (no regex splitting) as separate
+// fork-join tasks, the synsets and the hypernyms at the same time, since the edges no longer
+// have to wait for the number of synsets. The chunks are merged into the synset table and a
+// CompactDigraph once every task is done.
+//
+// The hypernym chunks also hash the bytes they parse, as SHA-256 digests of consecutive
+// HASH_BLOCK_BYTES blocks, which give the digest of the whole file that DagCheck records for a
+// hypernyms file that passed the check. The digest thus describes exactly the edges read, even
+// if the file changes afterwards.
+class WordNetLoader {
+
+    // the chunks are at least this big, so that small files are not cut into tiny tasks
+    private static final long MIN_CHUNK_BYTES = 1 << 16;
+    // and at most this big, so that large files still give every core several tasks
+    private static final long MAX_CHUNK_BYTES = 1 << 26;
+    // a chunk may read this far past its end to finish its last line
+    private static final int MAX_LINE_BYTES = 1 << 20;
+    // chunks start at multiples of this, so the hashed blocks do not depend on the chunk size
+    private static final int HASH_BLOCK_BYTES = (int) MIN_CHUNK_BYTES;
+
+    final String[] synsets;
+    final CompactDigraph graph;
+    // SHA-256 of the SHA-256 digests of the blocks of the hypernyms file, in order
+    final byte[] hypernymsDigest;
+
+    private WordNetLoader(String[] synsets, CompactDigraph graph, byte[] hypernymsDigest) {
+        this.synsets = synsets;
+        this.graph = graph;
+        this.hypernymsDigest = hypernymsDigest;
+    }
+
+    static WordNetLoader load(String synsetsFile, String hypernymsFile) {
+        List<SynsetChunk> synsetChunks = new ArrayList<SynsetChunk>();
+        for (long[] range : chunks(synsetsFile)) synsetChunks.add(new SynsetChunk(synsetsFile, range[0], range[1]));
+        List<long[]> hypernymRanges = chunks(hypernymsFile);
+        long size = hypernymRanges.isEmpty() ? 0 : hypernymRanges.get(hypernymRanges.size() - 1)[1];
+        byte[][] blocks = new byte[(int) ((size + HASH_BLOCK_BYTES - 1) / HASH_BLOCK_BYTES)][];
+        List<HypernymChunk> hypernymChunks = new ArrayList<HypernymChunk>();
+        for (long[] range : hypernymRanges) hypernymChunks.add(new HypernymChunk(hypernymsFile, range[0], range[1], blocks));
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        tasks.addAll(synsetChunks);
+        tasks.addAll(hypernymChunks);
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        rethrow(tasks);
+        String[] synsets = mergeSynsets(synsetChunks);
+        MessageDigest sha = DagCheck.sha256();
+        for (byte[] block : blocks) sha.update(block);
+        return new WordNetLoader(synsets, mergeHypernyms(hypernymChunks, synsets.length), sha.digest());
+    }
+
+    // digraph with V vertices and the edges listed in a hypernyms file
+    static CompactDigraph readHypernyms(String hypernymsFile, int V) {
+        List<HypernymChunk> chunks = new ArrayList<HypernymChunk>();
+        for (long[] range : chunks(hypernymsFile)) chunks.add(new HypernymChunk(hypernymsFile, range[0], range[1], null));
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(chunks);
+            }
+        });
+        rethrow(chunks);
+        return mergeHypernyms(chunks, V);
+    }
+
+    // the first parse error of the chunks, thrown from the calling thread so that it reaches
+    // the caller as is rather than wrapped by the fork-join pool
+    private static void rethrow(List<? extends ForkJoinTask<?>> chunks) {
+        for (ForkJoinTask<?> chunk : chunks) {
+            if (((Chunk) chunk).error != null) throw ((Chunk) chunk).error;
+        }
+    }
+
+    private static String[] mergeSynsets(List<SynsetChunk> chunks) {
+        int count = 0;
+        for (SynsetChunk chunk : chunks) count += chunk.count;
+        String[] synsets = new String[count];
+        for (SynsetChunk chunk : chunks) {
+            for (int i = 0; i < chunk.count; i++) {
+                int id = chunk.ids[i];
+                if (id < 0 || id >= count)
+                    throw new IllegalArgumentException("synset id " + id + " is not between 0 and " + (count - 1));
+                if (synsets[id] != null)
+                    throw new IllegalArgumentException("duplicate synset id " + id);
+                synsets[id] = chunk.synsets[i];
+            }
+        }
+        return synsets;
+    }
+
+    private static CompactDigraph mergeHypernyms(List<HypernymChunk> chunks, int V) {
+        int E = 0;
+        for (HypernymChunk chunk : chunks) E += chunk.count;
+        int[] from = new int[E];
+        int[] to = new int[E];
+        int i = 0;
+        for (HypernymChunk chunk : chunks) {
+            System.arraycopy(chunk.from, 0, from, i, chunk.count);
+            System.arraycopy(chunk.to, 0, to, i, chunk.count);
+            i += chunk.count;
+        }
+        return CompactDigraph.fromEdges(V, from, to, E);
+    }
+
+    // [start, end) byte ranges covering file; a chunk parses the lines that start in its range
+    private static List<long[]> chunks(String file) {
+        long size;
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("could not open " + file, e);
+        }
+        long chunk = size / (4L * ForkJoinPool.getCommonPoolParallelism());
+        chunk = Math.min(MAX_CHUNK_BYTES, Math.max(MIN_CHUNK_BYTES, chunk));
+        chunk -= chunk % HASH_BLOCK_BYTES;
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (long start = 0; start < size; start += chunk) ranges.add(new long[] { start, Math.min(size, start + chunk) });
+        return ranges;
+    }
+
+    // the lines starting in [start, end) of a file, mapped together with the byte before start
+    // (to tell whether a line starts there) and enough bytes after end to finish the last line.
+    // If blocks is not null, the digests of the blocks in [start, end) are stored in it
+    private abstract static class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final String file;
+        private final long start;
+        private final long end;
+        private final byte[][] blocks;
+        private MappedByteBuffer bytes;
+        private boolean truncated;
+        int pos;
+        private int limit;
+        IllegalArgumentException error;
+
+        Chunk(String file, long start, long end, byte[][] blocks) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.blocks = blocks;
+        }
+
+        @Override
+        protected void compute() {
+            long base = Math.max(0, start - 1);
+            try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+                long mapEnd = Math.min(channel.size(), end + MAX_LINE_BYTES);
+                truncated = mapEnd < channel.size();
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, base, mapEnd - base);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pos = (int) (start - base);
+            limit = (int) (end - base);
+            if (blocks != null) {
+                MessageDigest sha = DagCheck.sha256();
+                for (int at = pos; at < limit; at += HASH_BLOCK_BYTES) {
+                    sha.update(bytes.slice(at, Math.min(HASH_BLOCK_BYTES, limit - at)));
+                    blocks[(int) ((base + at) / HASH_BLOCK_BYTES)] = sha.digest();
+                }
+            }
+            try {
+                // a line that started in the previous chunk is parsed there
+                if (start > 0 && bytes.get(pos - 1) != '\n') skipLine();
+                while (pos < limit) {
+                    if (atEndOfLine()) skipLine();
+                    else parseLine();
+                }
+            }
+            catch (IllegalArgumentException e) {
+                error = e;
+            }
+            bytes = null;
+        }
+
+        abstract void parseLine();
+
+        private boolean atEndOfLine() {
+            byte b = bytes.get(pos);
+            return b == '\n' || b == '\r';
+        }
+
+        // moves past the end of the current line
+        void skipLine() {
+            while (pos < bytes.limit() && bytes.get(pos) != '\n') pos++;
+            if (pos == bytes.limit() && truncated)
+                throw malformed("line longer than " + MAX_LINE_BYTES + " bytes");
+            pos++;
+        }
+
+        byte peek() {
+            return pos < bytes.limit() ? bytes.get(pos) : (byte) '\n';
+        }
+
+        // consumes a separator that must be c
+        void expect(char c) {
+            if (peek() != c)
+                throw malformed(c == '\n' ? "expected end of line" : "expected '" + c + "'");
+            pos++;
+        }
+
+        // consumes a non-negative decimal integer
+        int parseInt() {
+            int value = 0;
+            int digits = 0;
+            while (pos < bytes.limit() && bytes.get(pos) >= '0' && bytes.get(pos) <= '9') {
+                value = 10 * value + bytes.get(pos++) - '0';
+                if (++digits > 9) throw malformed("number too large");
+            }
+            if (digits == 0) throw malformed("expected a number");
+            return value;
+        }
+
+        // consumes the bytes up to the next comma or end of line and decodes them as UTF-8
+        String parseField(byte[] scratch) {
+            int from = pos;
+            while (pos < bytes.limit()) {
+                byte b = bytes.get(pos);
+                if (b == ',' || b == '\n' || b == '\r') break;
+                pos++;
+            }
+            int n = pos - from;
+            byte[] buffer = n <= scratch.length ? scratch : new byte[n];
+            for (int i = 0; i < n; i++) buffer[i] = bytes.get(from + i);
+            return new String(buffer, 0, n, StandardCharsets.UTF_8);
+        }
+
+        IllegalArgumentException malformed(String reason) {
+            long offset = start - (start > 0 ? 1 : 0) + pos;
+            return new IllegalArgumentException(file + ": " + reason + " at byte " + offset);
+        }
+    }
+
+    // "id,nouns,gloss" lines; only the id and the nouns are kept
+    private static final class SynsetChunk extends Chunk {
+        private static final long serialVersionUID = 1L;
+        private final byte[] scratch = new byte[256];
+        int[] ids = new int[64];
+        String[] synsets = new String[64];
+        int count;
+
+        SynsetChunk(String file, long start, long end) {
+            super(file, start, end, null);
+        }
+
+        @Override
+        void parseLine() {
+            int id = parseInt();
+            expect(',');
+            String nouns = parseField(scratch);
+            if (nouns.isEmpty()) throw malformed("synset without nouns");
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * count);
+                synsets = Arrays.copyOf(synsets, 2 * count);
+            }
+            ids[count] = id;
+            synsets[count++] = nouns;
+            skipLine();
+        }
+    }
+
+    // "v,w1,w2,..." lines, one edge v -> wi per hypernym
+    private static final class HypernymChunk extends Chunk {
+        private static final long serialVersionUID = 1L;
+        int[] from = new int[64];
+        int[] to = new int[64];
+        int count;
+
+        HypernymChunk(String file, long start, long end, byte[][] blocks) {
+            super(file, start, end, blocks);
+        }
+
+        @Override
+        void parseLine() {
+            int v = parseInt();
+            while (peek() == ',') {
+                pos++;
+                int w = parseInt();
+                if (count == from.length) {
+                    from = Arrays.copyOf(from, 2 * count);
+                    to = Arrays.copyOf(to, 2 * count);
+                }
+                from[count] = v;
+                to[count++] = w;
+            }
+            if (peek() != '\r') expect('\n');
+            else skipLine();
+        }
+    }
+}
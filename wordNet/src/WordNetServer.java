@@ -0,0 +1,230 @@
+import edu.princeton.cs.algs4.StdOut;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+// Serves WordNet queries on a loopback TCP port, so that several processes can share one
+// loaded WordNet. The protocol is one request per line, words separated by spaces:
+//
+//   DISTANCE nounA nounB    ->  OK length
+//   SAP nounA nounB         ->  OK synset
+//   ISNOUN word             ->  OK true | OK false
+//   OUTCAST noun noun ...   ->  OK noun
+//
+// and a request that fails gets "ERR reason". Clients may pipeline requests: the responses
+// come back in request order, one line each. Every connection has its own thread, which
+// reads all the requests already sent as one batch, runs a large batch in parallel on a
+// shared pool of workers, and writes the responses with a single flush.
+public class WordNetServer implements Closeable {
+
+    // largest number of pipelined requests answered as one batch
+    private static final int MAX_BATCH = 1024;
+    // batches smaller than this are answered by the connection thread alone
+    private static final int PARALLEL_BATCH = 16;
+
+    private final WordNet wordnet;
+    private final Outcast outcast;
+    private final ServerSocket server;
+    private final ExecutorService connections;
+    private final ExecutorService workers;
+    private final int parallelism;
+    // the open connections, closed by close() since blocked reads ignore interrupts
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    // listens on port of the loopback address, or on a free port if port is 0
+    public WordNetServer(WordNet wordnet, int port) {
+        if (wordnet == null)
+            throw new IllegalArgumentException();
+        this.wordnet = wordnet;
+        outcast = new Outcast(wordnet);
+        try {
+            server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        connections = Executors.newCachedThreadPool(daemon("wordnet-connection"));
+        parallelism = Runtime.getRuntime().availableProcessors();
+        workers = Executors.newFixedThreadPool(parallelism, daemon("wordnet-worker"));
+        Thread acceptor = new Thread(this::accept, "wordnet-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+        for (Socket socket : sockets) closeQuietly(socket);
+        connections.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                sockets.add(socket);
+                // close() may have run since accept() returned
+                if (server.isClosed()) {
+                    closeQuietly(socket);
+                    return;
+                }
+                connections.execute(() -> serve(socket));
+            }
+            catch (IOException e) {
+                if (server.isClosed()) return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            List<String> batch = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                batch.clear();
+                batch.add(line);
+                // the requests the client already sent are answered together
+                while (batch.size() < MAX_BATCH && in.ready() && (line = in.readLine()) != null) batch.add(line);
+                for (String response : answer(batch)) {
+                    out.write(response);
+                    out.write('\n');
+                }
+                out.flush();
+            }
+        }
+        catch (SocketException e) {
+            // the client went away
+        }
+        catch (IOException e) {
+            // nothing to answer to
+        }
+        finally {
+            sockets.remove(socket);
+        }
+    }
+
+    // the responses to requests, in order
+    private String[] answer(List<String> requests) throws IOException {
+        String[] responses = new String[requests.size()];
+        int n = requests.size();
+        if (n < PARALLEL_BATCH) {
+            for (int i = 0; i < n; i++) responses[i] = answer(requests.get(i));
+            return responses;
+        }
+        int chunks = Math.min(parallelism, n);
+        List<Future<?>> done = new ArrayList<Future<?>>();
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) n * c / chunks);
+            int to = (int) ((long) n * (c + 1) / chunks);
+            done.add(workers.submit(() -> {
+                for (int i = from; i < to; i++) responses[i] = answer(requests.get(i));
+            }));
+        }
+        try {
+            for (Future<?> f : done) f.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        return responses;
+    }
+
+    private String answer(String request) {
+        String[] words = request.trim().split(" +");
+        try {
+            switch (words[0].toUpperCase(Locale.ROOT)) {
+                case "DISTANCE":
+                    arguments(words, 2);
+                    return "OK " + wordnet.distance(words[1], words[2]);
+                case "SAP":
+                    arguments(words, 2);
+                    return "OK " + wordnet.sap(words[1], words[2]);
+                case "ISNOUN":
+                    arguments(words, 1);
+                    return "OK " + wordnet.isNoun(words[1]);
+                case "OUTCAST":
+                    if (words.length < 3)
+                        throw new IllegalArgumentException("OUTCAST takes at least 2 nouns");
+                    return "OK " + outcast.outcast(Arrays.copyOfRange(words, 1, words.length));
+                default:
+                    return "ERR unknown command " + words[0];
+            }
+        }
+        catch (IllegalArgumentException e) {
+            return "ERR " + (e.getMessage() == null ? "invalid arguments" : e.getMessage());
+        }
+    }
+
+    private static void arguments(String[] words, int n) {
+        if (words.length != n + 1)
+            throw new IllegalArgumentException(words[0].toUpperCase(Locale.ROOT) + " takes " + n + (n == 1 ? " word" : " nouns"));
+    }
+
+    // serves the WordNet of a synsets and a hypernyms file, or of a snapshot, on a port
+    //   java WordNetServer port synsets.txt hypernyms.txt
+    //   java WordNetServer port wordnet.snapshot
+    public static void main(String[] args) throws InterruptedException {
+        int port = Integer.parseInt(args[0]);
+        WordNet wordnet = args.length > 2 ? new WordNet(args[1], args[2]) : WordNet.load(args[1]);
+        wordnet.indexAncestors();
+        WordNetServer server = new WordNetServer(wordnet, port);
+        StdOut.println("serving on 127.0.0.1:" + server.port());
+        Thread.currentThread().join();
+    }
+}
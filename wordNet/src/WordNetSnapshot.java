@@ -0,0 +1,146 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Binary image of a loaded WordNet: the synset strings, the noun index and the hypernym graph
+// as compressed sparse rows. The file is
+//
+//   int magic, int version, long CRC32 of the payload, payload
+//
+// and the payload holds, in order, the synsets (count, then length-prefixed UTF-8 strings), the
+// noun index (count, the sorted nouns as length-prefixed UTF-8 strings, count + 1 offsets, the
+// postings count and the postings) and the graph (V, V + 1 row offsets, E targets). Snapshots
+// are only written from a WordNet that passed validation, so a snapshot whose checksum matches
+// is loaded without validating the graph again.
+class WordNetSnapshot {
+
+    private static final int MAGIC = 0x574e5348; // "WNSH"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 16;
+
+    final StringTable synsets;
+    final NounIndex nouns;
+    final CompactDigraph graph;
+
+    WordNetSnapshot(StringTable synsets, NounIndex nouns, CompactDigraph graph) {
+        this.synsets = synsets;
+        this.nouns = nouns;
+        this.graph = graph;
+    }
+
+    void write(String file) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeInt(synsets.size());
+            for (int id = 0; id < synsets.size(); id++) writeString(payload, synsets.get(id));
+            payload.writeInt(nouns.size());
+            for (int i = 0; i < nouns.size(); i++) writeString(payload, nouns.noun(i));
+            int postings = 0;
+            payload.writeInt(0);
+            for (int i = 0; i < nouns.size(); i++) payload.writeInt(postings += nouns.to(i) - nouns.from(i));
+            payload.writeInt(postings);
+            for (int i = 0; i < nouns.size(); i++) {
+                int[] ids = nouns.postings(i);
+                for (int k = nouns.from(i); k < nouns.to(i); k++) payload.writeInt(ids[k]);
+            }
+            payload.writeInt(graph.V());
+            int E = 0;
+            payload.writeInt(0);
+            for (int v = 0; v < graph.V(); v++) payload.writeInt(E += graph.outdegree(v));
+            for (int v = 0; v < graph.V(); v++) {
+                int[] targets = graph.targets(v);
+                for (int i = graph.start(v); i < graph.end(v); i++) payload.writeInt(targets[i]);
+            }
+            payload.flush();
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            try (OutputStream out = new FileOutputStream(file)) {
+                DataOutputStream header = new DataOutputStream(out);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeLong(crc.getValue());
+                bytes.writeTo(out);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // the snapshot in file; if mapped is set, the synset and noun strings stay in the mapped
+    // file and are decoded when used
+    static WordNetSnapshot read(String file, boolean mapped) {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC)
+            throw new IllegalArgumentException(file + " is not a WordNet snapshot");
+        if (in.getInt() != VERSION)
+            throw new IllegalArgumentException(file + " has an unsupported snapshot version");
+        long checksum = in.getLong();
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+        if (crc.getValue() != checksum)
+            throw new IllegalArgumentException(file + " is corrupt: checksum mismatch");
+
+        StringTable synsets = readStrings(in, mapped);
+        StringTable nouns = readStrings(in, mapped);
+        int[] nounOffsets = readInts(in, nouns.size() + 1);
+        int[] postings = readInts(in, in.getInt());
+        int[] offsets = readInts(in, in.getInt() + 1);
+        int[] targets = readInts(in, offsets[offsets.length - 1]);
+        return new WordNetSnapshot(synsets, new NounIndex(nouns, nounOffsets, postings),
+                                   new CompactDigraph(offsets, targets));
+    }
+
+    private static int[] readInts(ByteBuffer in, int n) {
+        int[] ints = new int[n];
+        in.asIntBuffer().get(ints);
+        in.position(in.position() + 4 * n);
+        return ints;
+    }
+
+    // a count followed by that many length-prefixed strings
+    private static StringTable readStrings(ByteBuffer in, boolean mapped) {
+        int n = in.getInt();
+        if (mapped) {
+            int[] offsets = new int[n];
+            for (int i = 0; i < n; i++) {
+                offsets[i] = in.position();
+                in.position(in.position() + 4 + in.getInt(in.position()));
+            }
+            return StringTable.inRegion(in.duplicate(), offsets);
+        }
+        String[] strings = new String[n];
+        for (int i = 0; i < n; i++) strings[i] = readString(in);
+        return StringTable.onHeap(strings);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}